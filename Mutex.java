@@ -1,80 +1,120 @@
 package org.rosuda.JRI;
 
-/** This class implements a (not so) simple mutex. The initial state of the mutex is unlocked. */
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+/** This class implements a (not so) simple mutex. The initial state of the mutex is unlocked.<p>Since JRI 0.5-5 the mutex is based on <code>java.util.concurrent</code>: threads waiting for the lock are queued and the lock is handed off in FIFO order, so no thread can be starved by others repeatedly grabbing the lock. The mutex also keeps usage statistics (number of acquisitions, contention, time spent waiting for and holding the lock) which can be used to find out how much time is lost waiting for R. Statistics are updated only by the thread owning the lock, so collecting them requires no additional synchronization. */
 public class Mutex {
     public static boolean verbose=false;
 
-    /** defines the current mutex state */
-    private boolean locked=false;
+    /** fair, non-reentrant synchronizer (state 0 = unlocked, 1 = locked). Unlike <code>ReentrantLock</code> it doesn't insist on the owner releasing the lock, because the mutex API allows (albeit warns about) unlocking by another thread. */
+    private static final class Sync extends AbstractQueuedSynchronizer {
+        protected boolean tryAcquire(int arg) {
+            return getState() == 0 && !hasQueuedPredecessors() && compareAndSetState(0, 1);
+        }
+
+        protected boolean tryRelease(int arg) {
+            setState(0);
+            return true;
+        }
+
+        /** acquire the lock if it is free regardless of any queued threads (same semantics as the old <code>tryLock</code>) */
+        boolean barge() {
+            return compareAndSetState(0, 1);
+        }
+
+        boolean isLocked() {
+            return getState() != 0;
+        }
+    }
+
+    private final Sync sync = new Sync();
 
     /** thread that locked this mutex (used for simple deadlock-detection) */
-    private Thread lockedBy=null;
+    private volatile Thread lockedBy=null;
+
+    /** time (as in <code>System.nanoTime()</code>) when the mutex was locked */
+    private long lockedAt;
+
+    // statistics - all of them are only modified by the thread holding the lock
+    private volatile long acquisitions, contentions, waitTime, maxWaitTime, holdTime, maxHoldTime;
+
+    /** records a successful lock
+        @param waited time spent waiting for the lock in ns or -1 if the lock was obtained without waiting */
+    private void acquired(long waited) {
+        lockedBy = Thread.currentThread();
+        acquisitions++;
+        if (waited >= 0) {
+            contentions++;
+            waitTime += waited;
+            if (waited > maxWaitTime) maxWaitTime = waited;
+        }
+        if (verbose) System.out.println("INFO: "+toString()+" locked by "+lockedBy);
+        lockedAt = System.nanoTime();
+    }
+
+    private void checkDeadlock() {
+        if (lockedBy==Thread.currentThread())
+            System.err.println("FATAL ERROR: org.rosuda.JRI.Mutex detected a deadlock! The application is likely to hang indefinitely!");
+    }
 
     /** locks the mutex. If the mutex is already locked, waits until the mutex becomes free. Make sure the same thread doesn't issue two locks, because that will cause a deadlock. Use {@link #safeLock()} instead if you wish to detect such deadlocks. */
-    public synchronized void lock()
+    public void lock()
     {
-        while (locked) {
-            if (lockedBy==Thread.currentThread())
-                System.err.println("FATAL ERROR: org.rosuda.JRI.Mutex detected a deadlock! The application is likely to hang indefinitely!");
-            if (verbose)
-                System.out.println("INFO: "+toString()+" is locked by "+lockedBy+", but "+Thread.currentThread()+" waits for release (no timeout)");
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                if (verbose)
-                    System.out.println("INFO: "+toString()+" caught InterruptedException");
-            }
+        if (sync.tryAcquire(1)) {
+            acquired(-1);
+            return;
         }
-        locked=true;
-        lockedBy=Thread.currentThread();
-        if (verbose) System.out.println("INFO: "+toString()+" locked by "+lockedBy);
+        checkDeadlock();
+        if (verbose)
+            System.out.println("INFO: "+toString()+" is locked by "+lockedBy+", but "+Thread.currentThread()+" waits for release (no timeout)");
+        long t0 = System.nanoTime();
+        sync.acquire(1);
+        acquired(System.nanoTime() - t0);
     }
 
     /** locks the mutex. If the mutex is already locked, waits until the mutex becomes free. Make sure the same thread doesn't issue two locks, because that will cause a deadlock.
         @param to timeout in milliseconds, see {@link #wait()}.
         @return <code>true</code> if the lock was successful, <code>false</code> if not
         */
-    public synchronized boolean lockWithTimeout(long to)
+    public boolean lockWithTimeout(long to)
     {
-        if (locked) {
-            if (lockedBy==Thread.currentThread())
-                System.err.println("FATAL ERROR: org.rosuda.JRI.Mutex detected a deadlock! The application is likely to hang indefinitely!");
-            if (verbose)
-                System.out.println("INFO: "+toString()+" is locked by "+lockedBy+", but "+Thread.currentThread()+" waits for release (timeout "+to+" ms)");
-            try {
-                wait(to);
-            } catch (InterruptedException e) {
-                if (verbose)
-                    System.out.println("INFO: "+toString()+" caught InterruptedException");
-            }
-        }
-        if (!locked) {
-            locked=true;
-            lockedBy=Thread.currentThread();
-            if (verbose) System.out.println("INFO: "+toString()+" locked by "+lockedBy);
+        if (sync.tryAcquire(1)) {
+            acquired(-1);
             return true;
         }
+        checkDeadlock();
+        if (verbose)
+            System.out.println("INFO: "+toString()+" is locked by "+lockedBy+", but "+Thread.currentThread()+" waits for release (timeout "+to+" ms)");
+        long t0 = System.nanoTime();
+        try {
+            if (sync.tryAcquireNanos(1, to * 1000000L)) {
+                acquired(System.nanoTime() - t0);
+                return true;
+            }
+        } catch (InterruptedException e) {
+            if (verbose)
+                System.out.println("INFO: "+toString()+" caught InterruptedException");
+            Thread.currentThread().interrupt();
+        }
         if (verbose) System.out.println("INFO: "+toString()+" timeout, failed to obtain lock for "+Thread.currentThread());
         return false;
     }
 
     /** attempts to lock the mutex and returns information about its success.
         @return 0 if the mutex was locked sucessfully<br>1 if the mutex is already locked by another thread<br>-1 is the mutex is already locked by the same thread (hence a call to {@link #lock()} would cause a deadlock). */
-    public synchronized int tryLock()
+    public int tryLock()
     {
         if (verbose) System.out.println("INFO: "+toString()+" tryLock by "+Thread.currentThread());
-        if (locked) return (lockedBy==Thread.currentThread())?-1:1;
-        locked=true;
-        lockedBy=Thread.currentThread();
-        if (verbose) System.out.println("INFO: "+toString()+" locked by "+lockedBy);
+        if (!sync.barge()) return (lockedBy==Thread.currentThread())?-1:1;
+        acquired(-1);
         return 0;
     }
 
     /** Locks the mutex. It works like {@link #lock()} except that it returns immediately if the same thread already owns the lock. It is safer to use this function rather than {@link #lock()}, because lock can possibly cause a deadlock which won't be resolved.
         @return <code>true</code> is the mutex was successfully locked, <code>false</code> if deadlock was detected (i.e. the same thread has already the lock). */
-    public synchronized boolean safeLock()
+    public boolean safeLock()
     {
-        if (locked && lockedBy==Thread.currentThread()) {
+        if (lockedBy==Thread.currentThread()) {
             if (verbose) System.out.println("INFO: "+toString()+" unable to provide safe lock for "+Thread.currentThread());
             return false;
         }
@@ -84,29 +124,80 @@ public class Mutex {
 
     /** Locks the mutex. It works like {@link #lockWithTimeout(long)} except that it returns immediately if the same thread already owns the lock. It is safer to use this function rather than {@link #lockWithTimeout(long)}, because lock can possibly cause a deadlock which won't be resolved.
         @return <code>true</code> is the mutex was successfully locked, <code>false</code> if deadlock was detected or timeout elapsed. */
-    public synchronized boolean safeLockWithTimeout(long to)
+    public boolean safeLockWithTimeout(long to)
     {
-        if (locked && lockedBy==Thread.currentThread()) {
+        if (lockedBy==Thread.currentThread()) {
             if (verbose) System.out.println("INFO: "+toString()+" unable to provide safe lock (deadlock detected) for "+Thread.currentThread());
             return false;
         }
         return lockWithTimeout(to);
     }
 
-    /** unlocks the mutex. It is possible to unlock an unlocked mutex, but a warning may be issued. */
-    public synchronized void unlock()
+    /** unlocks the mutex. It is possible to unlock an unlocked mutex, but a warning may be issued. The lock is handed to the thread that has been waiting longest. */
+    public void unlock()
     {
-        if (locked && lockedBy!=Thread.currentThread())
-            System.err.println("WARNING: org.rosuda.JRI.Mutex was unlocked by other thread than locked! This may soon lead to a crash...");
-        locked=false;
+        if (sync.isLocked()) {
+            if (lockedBy!=Thread.currentThread())
+                System.err.println("WARNING: org.rosuda.JRI.Mutex was unlocked by other thread than locked! This may soon lead to a crash...");
+            long held = System.nanoTime() - lockedAt;
+            holdTime += held;
+            if (held > maxHoldTime) maxHoldTime = held;
+            lockedBy = null;
+        }
         if (verbose) System.out.println("INFO: "+toString()+" unlocked by "+Thread.currentThread());
+        sync.release(1);
+    }
+
+    /** returns the thread currently holding the lock.
+        @return owner of the lock or <code>null</code> if the mutex is unlocked
+        @since JRI 0.5-5 */
+    public Thread getOwner() { return lockedBy; }
+
+    /** returns an estimate of the number of threads waiting for the lock.
+        @return number of waiting threads
+        @since JRI 0.5-5 */
+    public int getQueueLength() { return sync.getQueueLength(); }
+
+    /** returns the number of times the mutex was locked.
+        @return number of successful locks
+        @since JRI 0.5-5 */
+    public long getAcquisitions() { return acquisitions; }
+
+    /** returns the number of times a thread had to wait for the mutex because it was locked.
+        @return number of contended locks
+        @since JRI 0.5-5 */
+    public long getContentions() { return contentions; }
+
+    /** returns the total time threads spent waiting for the mutex.
+        @return wait time in nanoseconds
+        @since JRI 0.5-5 */
+    public long getWaitTime() { return waitTime; }
+
+    /** returns the longest time a thread had to wait for the mutex.
+        @return maximal wait time in nanoseconds
+        @since JRI 0.5-5 */
+    public long getMaxWaitTime() { return maxWaitTime; }
+
+    /** returns the total time the mutex was held (not including the current lock if the mutex is locked).
+        @return hold time in nanoseconds
+        @since JRI 0.5-5 */
+    public long getHoldTime() { return holdTime; }
+
+    /** returns the longest time the mutex was held at once.
+        @return maximal hold time in nanoseconds
+        @since JRI 0.5-5 */
+    public long getMaxHoldTime() { return maxHoldTime; }
 
-        // notify just 1 in case more of them are waiting
-        notify();
+    /** resets all statistics to zero. Note that concurrent lock operations may get lost in the process, so this is only meant for taking rough samples.
+        @since JRI 0.5-5 */
+    public void resetStatistics() {
+        acquisitions = contentions = waitTime = maxWaitTime = holdTime = maxHoldTime = 0;
     }
 
     public String toString()
     {
-        return super.toString()+"["+((locked)?"":"un")+"locked"+((!locked)?"":(", by "+((lockedBy==Thread.currentThread())?"current":"another")+" thread"))+"]";
+        boolean locked = sync.isLocked();
+        Thread owner = lockedBy;
+        return super.toString()+"["+((locked)?"":"un")+"locked"+((!locked)?"":(", by "+((owner==Thread.currentThread())?"current":"another")+" thread"))+"]";
     }
 }
@@ -0,0 +1,328 @@
+package org.rosuda.JRI;
+
+/** A call of an R function which is constructed once and can be executed many times with different arguments. Prepared calls are created by {@link Rengine#prepareCall(String,String...)}. Instead of pasting values into a string which then has to be parsed (loosing precision and opening the door to code injection) or assigning them to variables in the global environment, Java values are converted to R objects and placed directly into the argument cells of the call.<p>Arguments are addressed by their position (starting at 0) or by their name as specified when the call was prepared. Arguments that were not bound are passed as missing, i.e. the default value of the function argument is used. Bound values are retained until they are re-bound, {@link #clear}ed or the call is closed.<p>Example:<pre>
+PreparedCall c = engine.prepareCall("rnorm", null, "mean", "sd");
+c.bind(0, 10).bind("mean", 5.0).bind("sd", 2.0);
+double[] x = c.execute().asDoubleArray();
+c.close();
+</pre>
+All methods obtain <code>Rsync</code> as needed, so they can be used from any thread, but a prepared call itself is not thread-safe: binding and executing should be done by one thread at a time.
+@since JRI 0.5-5
+*/
+public class PreparedCall implements AutoCloseable {
+	/** engine the call belongs to */
+	final Rengine eng;
+	/** reference to the (preserved) call or 0 if closed */
+	long call;
+	/** references to the argument cells */
+	final long[] cells;
+	/** argument names (<code>null</code> for positional arguments) */
+	final String[] names;
+	/** reference to R_MissingArg */
+	final long missing;
+	/** environment to evaluate the call in (0 = global environment) */
+	long rho;
+
+	/** constructs the call skeleton. Must be called with <code>Rsync</code> held.
+		@param eng engine
+		@param fun reference to the function or function name (symbol)
+		@param argNames argument names */
+	PreparedCall(Rengine eng, long fun, String[] argNames) {
+		this.eng = eng;
+		names = (argNames == null) ? new String[0] : (String[]) argNames.clone();
+		cells = new long[names.length];
+		missing = eng.rniSpecialObject(Rengine.SO_MissingArg);
+		synchronized (eng) {
+			long t = 0;
+			int i = names.length;
+			// build the argument list from the end, each cell has to be protected until the whole call is preserved
+			while (i-- > 0) {
+				t = eng.rniCons(missing, t, (names[i] == null) ? 0 : eng.rniInstallSymbol(names[i]), false);
+				eng.rniProtect(t);
+				cells[i] = t;
+			}
+			call = eng.rniLCons(fun, t);
+			eng.rniPreserve(call);
+			if (names.length > 0) eng.rniUnprotect(names.length);
+		}
+	}
+
+	/** returns the number of arguments of the call
+		@return number of arguments */
+	public int getArgumentCount() {
+		return cells.length;
+	}
+
+	/** returns the position of a named argument
+		@param name argument name
+		@return position of the argument or -1 if there is no argument of that name */
+	public int indexOf(String name) {
+		for (int i = 0; i < names.length; i++)
+			if (name.equals(names[i])) return i;
+		return -1;
+	}
+
+	/** sets the environment in which the call will be evaluated
+		@param env environment (as a reference) or <code>null</code> for the global environment
+		@return this call */
+	public PreparedCall setEnvironment(REXP env) {
+		rho = (env == null) ? 0 : env.xp;
+		return this;
+	}
+
+	private int index(String name) {
+		int i = indexOf(name);
+		if (i < 0) throw new IllegalArgumentException("no argument named '" + name + "'");
+		return i;
+	}
+
+	/** places an R object into an argument cell. Must be called with <code>Rsync</code> held.
+		@param i position (already checked)
+		@param v reference to the R object (it must be the result of a rniPut.. call, no allocation may happen in between) */
+	void setArg(int i, long v) {
+		if (call == 0) throw new IllegalStateException("prepared call is closed");
+		eng.rniSetCAR(cells[i], v);
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= cells.length) throw new IndexOutOfBoundsException("argument " + i + " out of range (call has " + cells.length + " arguments)");
+	}
+
+	/** converts a value to an R object. Must be called with <code>Rsync</code> held.
+		@param v one of the types supported by the <code>bind</code> methods
+		@return reference to the new R object (0 for <code>null</code>) */
+	private long put(Object v) {
+		if (v == null) return 0;
+		if (v instanceof double[]) return eng.rniPutDoubleArray((double[]) v);
+		if (v instanceof int[]) return eng.rniPutIntArray((int[]) v);
+		if (v instanceof boolean[]) return eng.rniPutBoolArray((boolean[]) v);
+		if (v instanceof String[]) return eng.rniPutStringArray((String[]) v);
+		if (v instanceof byte[]) return eng.rniPutRawArray((byte[]) v);
+		REXP r = (REXP) v;
+		long x = eng.putREXP(r);
+		if (x == 0) throw new IllegalArgumentException("unsupported REXP type " + r.Xt);
+		return x;
+	}
+
+	/** common implementation of all <code>bind</code> methods: converts the value and places it into the argument cell
+		@param i position of the argument
+		@param v value (see {@link #put})
+		@return this call */
+	private PreparedCall bindValue(int i, Object v) {
+		checkIndex(i);
+		boolean obtainedLock = eng.getRsync().safeLock();
+		try {
+			synchronized (eng) {
+				setArg(i, put(v));
+			}
+		} finally {
+			if (obtainedLock) eng.getRsync().unlock();
+		}
+		return this;
+	}
+
+	/** binds a value to an argument
+		@param i position of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(int i, double v) {
+		return bind(i, new double[] { v });
+	}
+
+	/** binds a value to an argument
+		@param i position of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(int i, int v) {
+		return bind(i, new int[] { v });
+	}
+
+	/** binds a value to an argument
+		@param i position of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(int i, boolean v) {
+		return bind(i, new boolean[] { v });
+	}
+
+	/** binds a value to an argument
+		@param i position of the argument
+		@param v value (<code>null</code> is passed as <code>NA</code>)
+		@return this call */
+	public PreparedCall bind(int i, String v) {
+		return bind(i, new String[] { v });
+	}
+
+	/** binds a numeric vector to an argument
+		@param i position of the argument
+		@param v values
+		@return this call */
+	public PreparedCall bind(int i, double[] v) {
+		return bindValue(i, v);
+	}
+
+	/** binds an integer vector to an argument
+		@param i position of the argument
+		@param v values
+		@return this call */
+	public PreparedCall bind(int i, int[] v) {
+		return bindValue(i, v);
+	}
+
+	/** binds a logical vector to an argument
+		@param i position of the argument
+		@param v values
+		@return this call */
+	public PreparedCall bind(int i, boolean[] v) {
+		return bindValue(i, v);
+	}
+
+	/** binds a character vector to an argument
+		@param i position of the argument
+		@param v values
+		@return this call */
+	public PreparedCall bind(int i, String[] v) {
+		return bindValue(i, v);
+	}
+
+	/** binds a raw vector to an argument
+		@param i position of the argument
+		@param v values
+		@return this call */
+	public PreparedCall bind(int i, byte[] v) {
+		return bindValue(i, v);
+	}
+
+	/** binds a REXP to an argument. References (results of evaluations without conversion) are passed as-is, otherwise the same types as in {@link Rengine#assign(String,REXP)} are supported.
+		@param i position of the argument
+		@param v value (<code>null</code> binds <code>NULL</code>)
+		@return this call */
+	public PreparedCall bind(int i, REXP v) {
+		return bindValue(i, v);
+	}
+
+	/** binds a value to a named argument
+		@param name name of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(String name, double v) { return bind(index(name), v); }
+
+	/** binds a value to a named argument
+		@param name name of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(String name, int v) { return bind(index(name), v); }
+
+	/** binds a value to a named argument
+		@param name name of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(String name, boolean v) { return bind(index(name), v); }
+
+	/** binds a value to a named argument
+		@param name name of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(String name, String v) { return bind(index(name), v); }
+
+	/** binds a value to a named argument
+		@param name name of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(String name, double[] v) { return bind(index(name), v); }
+
+	/** binds a value to a named argument
+		@param name name of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(String name, int[] v) { return bind(index(name), v); }
+
+	/** binds a value to a named argument
+		@param name name of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(String name, boolean[] v) { return bind(index(name), v); }
+
+	/** binds a value to a named argument
+		@param name name of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(String name, String[] v) { return bind(index(name), v); }
+
+	/** binds a value to a named argument
+		@param name name of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(String name, byte[] v) { return bind(index(name), v); }
+
+	/** binds a value to a named argument
+		@param name name of the argument
+		@param v value
+		@return this call */
+	public PreparedCall bind(String name, REXP v) { return bind(index(name), v); }
+
+	/** resets an argument to missing, i.e. the default value of the function will be used
+		@param i position of the argument
+		@return this call */
+	public PreparedCall unbind(int i) {
+		checkIndex(i);
+		boolean obtainedLock = eng.getRsync().safeLock();
+		try {
+			synchronized (eng) {
+				setArg(i, missing);
+			}
+		} finally {
+			if (obtainedLock) eng.getRsync().unlock();
+		}
+		return this;
+	}
+
+	/** resets all arguments to missing and releases all bound values
+		@return this call */
+	public PreparedCall clear() {
+		boolean obtainedLock = eng.getRsync().safeLock();
+		try {
+			synchronized (eng) {
+				for (int i = 0; i < cells.length; i++)
+					setArg(i, missing);
+			}
+		} finally {
+			if (obtainedLock) eng.getRsync().unlock();
+		}
+		return this;
+	}
+
+	/** executes the call and returns the converted result. Same as <code>execute(true)</code>.
+		@return result or <code>null</code> if an error occurred */
+	public REXP execute() {
+		return execute(true);
+	}
+
+	/** executes the call with the currently bound arguments
+		@param convert if set to <code>true</code> the result is converted, otherwise a reference is returned (see {@link Rengine#eval(String,boolean)})
+		@return result or <code>null</code> if an error occurred */
+	public REXP execute(boolean convert) {
+		if (call == 0) throw new IllegalStateException("prepared call is closed");
+		boolean obtainedLock = eng.getRsync().safeLock();
+		try {
+			synchronized (eng) {
+				long er = eng.rniEval(call, rho);
+				return (er == 0) ? null : eng.createREXP(er, convert);
+			}
+		} finally {
+			if (obtainedLock) eng.unlockAfterEval();
+		}
+	}
+
+	/** releases the call and all bound values. The call cannot be used anymore afterwards. Prepared calls are not released automatically, so <code>close</code> must be called once the call is no longer needed. */
+	public void close() {
+		if (call == 0) return;
+		boolean obtainedLock = eng.getRsync().safeLock();
+		try {
+			eng.rniRelease(call);
+			call = 0;
+		} finally {
+			if (obtainedLock) eng.getRsync().unlock();
+		}
+	}
+}
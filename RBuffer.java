@@ -0,0 +1,98 @@
+package org.rosuda.JRI;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/** Read-only view of the data of an R vector. Unlike the <code>as...Array</code> methods of {@link REXP} the data is not copied, the buffer points directly to the memory of the R object. This makes it possible to process large numeric vectors (or pass them to other native code) without doubling the memory footprint. Views are created by {@link Rengine#getBuffer}.<p>The R object is preserved as long as the view is open, so {@link #close} should be called once the view is no longer needed. A view that is never closed is released some time after both the view and all buffers obtained from it were garbage-collected. <u>Important:</u> the buffers returned by a view must not be used after it was closed since the underlying memory may be re-used by R at any point. Also note that R objects are shared by reference, so if R code modifies the vector in place while the view is open, the changes will be visible through the view.<p>Example:<pre>
+REXP x = engine.eval("rnorm(1e7)", false);
+RBuffer b = engine.getBuffer(x);
+DoubleBuffer d = b.asDoubleBuffer();
+double s = 0;
+while (d.hasRemaining()) s += d.get();
+b.close();
+</pre>
+@since JRI 0.5-5
+*/
+public class RBuffer implements AutoCloseable {
+	/** engine the object belongs to */
+	final Rengine eng;
+	/** reference to the (preserved) object or 0 if closed */
+	long xp;
+	/** registration with the release queue of the engine, tied to the reachability of the direct buffer */
+	final RReleaseQueue.Ref ref;
+	/** R type of the object (<code>REALSXP</code>, <code>INTSXP</code>, <code>LGLSXP</code> or <code>RAWSXP</code>) */
+	final int rtype;
+	/** read-only view of the data in native byte order */
+	final ByteBuffer bb;
+
+	/** creates a view. The object must have been preserved already, the view takes over the responsibility to release it.
+		@param eng engine
+		@param xp reference to the object
+		@param rtype R type of the object
+		@param bb direct buffer covering the data */
+	RBuffer(Rengine eng, long xp, int rtype, ByteBuffer bb) {
+		this.eng = eng;
+		this.xp = xp;
+		this.rtype = rtype;
+		this.bb = bb.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+		// all buffers handed out are derived from bb and keep it reachable, so the object is released only once none of them is in use
+		ref = eng.releaseQueue.register(bb, xp);
+	}
+
+	private void check() {
+		if (xp == 0) throw new IllegalStateException("buffer is closed");
+	}
+
+	/** returns the R type of the vector
+		@return one of <code>REXP.REALSXP</code>, <code>REXP.INTSXP</code>, <code>REXP.LGLSXP</code> or <code>REXP.RAWSXP</code> */
+	public int getType() {
+		return rtype;
+	}
+
+	/** returns the number of elements of the vector
+		@return length */
+	public int length() {
+		int cap = bb.capacity();
+		return (rtype == REXP.REALSXP) ? cap / 8 : ((rtype == REXP.RAWSXP) ? cap : cap / 4);
+	}
+
+	/** returns the data as bytes (in native byte order)
+		@return new read-only buffer covering the whole vector */
+	public ByteBuffer asByteBuffer() {
+		check();
+		return bb.duplicate().order(ByteOrder.nativeOrder());
+	}
+
+	/** returns the data of a numeric vector
+		@return new read-only buffer covering the whole vector
+		@throws IllegalStateException if the vector is not numeric */
+	public DoubleBuffer asDoubleBuffer() {
+		check();
+		if (rtype != REXP.REALSXP) throw new IllegalStateException("not a numeric vector");
+		return asByteBuffer().asDoubleBuffer();
+	}
+
+	/** returns the data of an integer or logical vector. Logical values are represented as in R: 0 is <code>FALSE</code>, 1 is <code>TRUE</code> and <code>NA</code> is <code>Integer.MIN_VALUE</code>.
+		@return new read-only buffer covering the whole vector
+		@throws IllegalStateException if the vector is neither integer nor logical */
+	public IntBuffer asIntBuffer() {
+		check();
+		if (rtype != REXP.INTSXP && rtype != REXP.LGLSXP) throw new IllegalStateException("not an integer or logical vector");
+		return asByteBuffer().asIntBuffer();
+	}
+
+	/** releases the R object. All buffers obtained from this view become invalid. */
+	public void close() {
+		long x = eng.releaseQueue.take(ref);
+		if (x == 0) return;
+		boolean obtainedLock = eng.getRsync().safeLock();
+		try {
+			xp = 0;
+			eng.rniRelease(x);
+		} finally {
+			if (obtainedLock) eng.getRsync().unlock();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package org.rosuda.JRI;
+
+/** Complex vector stored as one array of interleaved real and imaginary parts (<code>re[0], im[0], re[1], im[1], ...</code>), which is the same layout R uses. In contrast to an array of {@link RComplexNumber}s it requires no object per element and is transferred to and from R in one piece (see {@link REXP#asComplexVector} and {@link Rengine#assign(String,RComplexVector)}).
+@since JRI 0.5-5
+*/
+public class RComplexVector {
+	/** interleaved real and imaginary parts */
+	final double[] data;
+
+	/** creates a complex vector from interleaved parts (the array is not copied)
+		@param data interleaved real and imaginary parts, the length must be even */
+	public RComplexVector(double[] data) {
+		if (data == null || (data.length & 1) != 0)
+			throw new IllegalArgumentException("interleaved data must have an even length");
+		this.data = data;
+	}
+
+	/** creates a complex vector from separate real and imaginary parts
+		@param re real parts
+		@param im imaginary parts (same length as <code>re</code>) */
+	public RComplexVector(double[] re, double[] im) {
+		if (re.length != im.length)
+			throw new IllegalArgumentException("real and imaginary parts must have the same length");
+		data = new double[re.length * 2];
+		for (int k = 0, j = 0; k < re.length; k++) {
+			data[j++] = re[k];
+			data[j++] = im[k];
+		}
+	}
+
+	/** creates a complex vector from complex numbers
+		@param z complex numbers */
+	public RComplexVector(RComplexNumber[] z) {
+		data = new double[z.length * 2];
+		for (int k = 0, j = 0; k < z.length; k++) {
+			data[j++] = z[k].getReminder();
+			data[j++] = z[k].getMultiplier();
+		}
+	}
+
+	/** returns the number of elements
+		@return length */
+	public int length() {
+		return data.length / 2;
+	}
+
+	/** returns the real part of an element
+		@param k index
+		@return real part */
+	public double getReal(int k) {
+		return data[2 * k];
+	}
+
+	/** returns the imaginary part of an element
+		@param k index
+		@return imaginary part */
+	public double getImaginary(int k) {
+		return data[2 * k + 1];
+	}
+
+	/** returns an element as a complex number object
+		@param k index
+		@return complex number */
+	public RComplexNumber get(int k) {
+		return new RComplexNumber(data[2 * k + 1], data[2 * k]);
+	}
+
+	/** returns the underlying array (not a copy)
+		@return interleaved real and imaginary parts */
+	public double[] getData() {
+		return data;
+	}
+
+	/** copies the real and imaginary parts into separate arrays
+		@param re array receiving the real parts (or <code>null</code>)
+		@param im array receiving the imaginary parts (or <code>null</code>) */
+	public void copyTo(double[] re, double[] im) {
+		int n = length();
+		for (int k = 0, j = 0; k < n; k++, j += 2) {
+			if (re != null) re[k] = data[j];
+			if (im != null) im[k] = data[j + 1];
+		}
+	}
+
+	/** returns the real parts
+		@return new array of real parts */
+	public double[] getReal() {
+		double[] re = new double[length()];
+		copyTo(re, null);
+		return re;
+	}
+
+	/** returns the imaginary parts
+		@return new array of imaginary parts */
+	public double[] getImaginary() {
+		double[] im = new double[length()];
+		copyTo(null, im);
+		return im;
+	}
+
+	/** converts the vector into complex number objects
+		@return new array of complex numbers */
+	public RComplexNumber[] toArray() {
+		RComplexNumber[] z = new RComplexNumber[length()];
+		for (int k = 0; k < z.length; k++) z[k] = get(k);
+		return z;
+	}
+
+	public String toString() {
+		return "RComplexVector[" + length() + "]";
+	}
+}
@@ -0,0 +1,281 @@
+package org.rosuda.JRI;
+
+import java.util.ArrayList;
+
+/** Data frame with typed columns. Each column is held in its primitive form (the same form R uses), so a data frame is transferred in one native call in either direction without creating an object per value (see {@link Rengine#assign(String,RDataFrame)} and {@link REXP#asDataFrame}).<p>Supported column types and their content:<ul>
+<li>{@link #DOUBLE} - <code>double[]</code></li>
+<li>{@link #INTEGER} - <code>int[]</code> (<code>NA</code> is <code>Integer.MIN_VALUE</code>)</li>
+<li>{@link #LOGICAL} - <code>int[]</code> (0 = <code>FALSE</code>, 1 = <code>TRUE</code>, <code>Integer.MIN_VALUE</code> = <code>NA</code>)</li>
+<li>{@link #STRING} - {@link RStringVector}</li>
+<li>{@link #FACTOR} - <code>int[]</code> 0-based level indices ({@link RFactor#NA} for <code>NA</code>) and <code>String[]</code> levels</li>
+<li>{@link #DATE} - <code>double[]</code> days since 1970-01-01</li>
+<li>{@link #POSIXCT} - <code>double[]</code> seconds since 1970-01-01 00:00 UTC and an optional time zone</li>
+</ul>
+Columns of other types (such as lists) are reported as {@link #OTHER} without content when a data frame is read from R.<p>Example:<pre>
+RDataFrame df = new RDataFrame(3);
+df.addDouble("x", new double[] { 1.2, 2.3, 4.5 });
+df.addString("id", new String[] { "a", "b", "c" });
+engine.assign("b", df);
+</pre>
+@since JRI 0.5-5
+*/
+public class RDataFrame {
+	/** column type: unsupported column (no content) */
+	public static final int OTHER = 0;
+	/** column type: numeric vector */
+	public static final int DOUBLE = 1;
+	/** column type: integer vector */
+	public static final int INTEGER = 2;
+	/** column type: logical vector */
+	public static final int LOGICAL = 3;
+	/** column type: character vector */
+	public static final int STRING = 4;
+	/** column type: factor */
+	public static final int FACTOR = 5;
+	/** column type: <code>Date</code> */
+	public static final int DATE = 6;
+	/** column type: <code>POSIXct</code> */
+	public static final int POSIXCT = 7;
+
+	/** number of rows */
+	final int nrow;
+	/** row names or <code>null</code> for automatic row names */
+	String[] rowNames;
+	final ArrayList<String> names = new ArrayList<String>();
+	final ArrayList<Integer> types = new ArrayList<Integer>();
+	/** column contents */
+	final ArrayList<Object> data = new ArrayList<Object>();
+	/** levels of factors, time zones of POSIXct columns */
+	final ArrayList<Object> extra = new ArrayList<Object>();
+
+	/** creates an empty data frame
+		@param nrow number of rows */
+	public RDataFrame(int nrow) {
+		if (nrow < 0) throw new IllegalArgumentException("negative number of rows");
+		this.nrow = nrow;
+	}
+
+	/** creates a data frame from its parts (used by the native code) */
+	RDataFrame(int nrow, String[] names, int[] types, Object[] data, Object[] extra, String[] rowNames) {
+		this(nrow);
+		for (int j = 0; j < types.length; j++) {
+			this.names.add(names[j]);
+			this.types.add(new Integer(types[j]));
+			this.data.add(data[j]);
+			this.extra.add(extra[j]);
+		}
+		this.rowNames = rowNames;
+	}
+
+	private RDataFrame add(String name, int type, Object d, int len, Object x) {
+		if (len != nrow) throw new IllegalArgumentException("column '" + name + "' has " + len + " rows, expected " + nrow);
+		names.add(name);
+		types.add(new Integer(type));
+		data.add(d);
+		extra.add(x);
+		return this;
+	}
+
+	/** adds a numeric column (the array is not copied)
+		@param name column name
+		@param v values
+		@return this data frame */
+	public RDataFrame addDouble(String name, double[] v) {
+		return add(name, DOUBLE, v, v.length, null);
+	}
+
+	/** adds an integer column (the array is not copied)
+		@param name column name
+		@param v values
+		@return this data frame */
+	public RDataFrame addInt(String name, int[] v) {
+		return add(name, INTEGER, v, v.length, null);
+	}
+
+	/** adds a logical column
+		@param name column name
+		@param v values
+		@return this data frame */
+	public RDataFrame addLogical(String name, boolean[] v) {
+		int[] i = new int[v.length];
+		for (int k = 0; k < v.length; k++) i[k] = v[k] ? 1 : 0;
+		return add(name, LOGICAL, i, i.length, null);
+	}
+
+	/** adds a logical column in its integer form (the array is not copied)
+		@param name column name
+		@param v values (0 = <code>FALSE</code>, 1 = <code>TRUE</code>, <code>Integer.MIN_VALUE</code> = <code>NA</code>)
+		@return this data frame */
+	public RDataFrame addLogicalI(String name, int[] v) {
+		return add(name, LOGICAL, v, v.length, null);
+	}
+
+	/** adds a character column
+		@param name column name
+		@param v values (<code>null</code> is <code>NA</code>)
+		@return this data frame */
+	public RDataFrame addString(String name, CharSequence[] v) {
+		return addString(name, new RStringVector(v));
+	}
+
+	/** adds a character column
+		@param name column name
+		@param v values
+		@return this data frame */
+	public RDataFrame addString(String name, RStringVector v) {
+		return add(name, STRING, v, v.length(), null);
+	}
+
+	/** adds a factor column (the arrays are not copied)
+		@param name column name
+		@param codes 0-based level indices or {@link RFactor#NA}
+		@param levels levels
+		@return this data frame */
+	public RDataFrame addFactor(String name, int[] codes, String[] levels) {
+		return add(name, FACTOR, codes, codes.length, levels);
+	}
+
+	/** adds a factor column
+		@param name column name
+		@param f factor
+		@return this data frame */
+	public RDataFrame addFactor(String name, RFactor f) {
+		return addFactor(name, f.getCodes(), f.getLevels());
+	}
+
+	/** adds a <code>Date</code> column (the array is not copied)
+		@param name column name
+		@param days days since 1970-01-01 (<code>NaN</code> is <code>NA</code>)
+		@return this data frame */
+	public RDataFrame addDate(String name, double[] days) {
+		return add(name, DATE, days, days.length, null);
+	}
+
+	/** adds a <code>POSIXct</code> column (the array is not copied)
+		@param name column name
+		@param seconds seconds since 1970-01-01 00:00 UTC (<code>NaN</code> is <code>NA</code>)
+		@param tz time zone (e.g. <code>"UTC"</code>) or <code>null</code> for the current time zone
+		@return this data frame */
+	public RDataFrame addPOSIXct(String name, double[] seconds, String tz) {
+		return add(name, POSIXCT, seconds, seconds.length, tz);
+	}
+
+	/** sets the row names
+		@param rn row names (must be unique) or <code>null</code> for automatic row names
+		@return this data frame */
+	public RDataFrame setRowNames(String[] rn) {
+		if (rn != null && rn.length != nrow) throw new IllegalArgumentException("wrong number of row names");
+		rowNames = rn;
+		return this;
+	}
+
+	/** returns the row names
+		@return row names or <code>null</code> if they are automatic */
+	public String[] getRowNames() {
+		return rowNames;
+	}
+
+	/** returns the number of rows
+		@return number of rows */
+	public int getRowCount() {
+		return nrow;
+	}
+
+	/** returns the number of columns
+		@return number of columns */
+	public int getColumnCount() {
+		return types.size();
+	}
+
+	/** returns the name of a column
+		@param j column
+		@return name */
+	public String getColumnName(int j) {
+		return names.get(j);
+	}
+
+	/** returns the names of all columns
+		@return new array of column names */
+	public String[] getColumnNames() {
+		return names.toArray(new String[names.size()]);
+	}
+
+	/** returns the index of a column
+		@param name column name
+		@return index of the first column of that name or -1 if there is none */
+	public int indexOf(String name) {
+		return names.indexOf(name);
+	}
+
+	/** returns the type of a column
+		@param j column
+		@return column type (one of the type constants) */
+	public int getColumnType(int j) {
+		return types.get(j).intValue();
+	}
+
+	/** returns the content of a column as it is stored (see the class description)
+		@param j column
+		@return content */
+	public Object getColumn(int j) {
+		return data.get(j);
+	}
+
+	/** returns the content of a {@link #DOUBLE}, {@link #DATE} or {@link #POSIXCT} column (not a copy)
+		@param j column
+		@return values or <code>null</code> if the column has a different type */
+	public double[] getDoubles(int j) {
+		int t = getColumnType(j);
+		return (t == DOUBLE || t == DATE || t == POSIXCT) ? (double[]) data.get(j) : null;
+	}
+
+	/** returns the content of an {@link #INTEGER}, {@link #LOGICAL} or {@link #FACTOR} column (not a copy)
+		@param j column
+		@return values (level indices for factors) or <code>null</code> if the column has a different type */
+	public int[] getInts(int j) {
+		int t = getColumnType(j);
+		return (t == INTEGER || t == LOGICAL || t == FACTOR) ? (int[]) data.get(j) : null;
+	}
+
+	/** returns the content of a {@link #STRING} column
+		@param j column
+		@return values or <code>null</code> if the column has a different type */
+	public RStringVector getStrings(int j) {
+		return (getColumnType(j) == STRING) ? (RStringVector) data.get(j) : null;
+	}
+
+	/** returns the levels of a {@link #FACTOR} column
+		@param j column
+		@return levels or <code>null</code> if the column is not a factor */
+	public String[] getLevels(int j) {
+		return (getColumnType(j) == FACTOR) ? (String[]) extra.get(j) : null;
+	}
+
+	/** returns a {@link #FACTOR} column as an {@link RFactor}
+		@param j column
+		@return new factor object or <code>null</code> if the column is not a factor */
+	public RFactor getFactor(int j) {
+		return (getColumnType(j) == FACTOR) ? new RFactor((int[]) data.get(j), (String[]) extra.get(j)) : null;
+	}
+
+	/** returns the time zone of a {@link #POSIXCT} column
+		@param j column
+		@return time zone or <code>null</code> if not set or the column is not POSIXct */
+	public String getTimeZone(int j) {
+		return (getColumnType(j) == POSIXCT) ? (String) extra.get(j) : null;
+	}
+
+	/** create the data frame in R. Must be called with <code>Rsync</code> held.
+		@param eng engine
+		@return reference to the data frame (not protected) or 0 if it cannot be created */
+	long put(Rengine eng) {
+		int n = types.size();
+		int[] t = new int[n];
+		for (int j = 0; j < n; j++) t[j] = types.get(j).intValue();
+		return eng.rniPutDataFrame(nrow, getColumnNames(), t, data.toArray(), extra.toArray(), rowNames);
+	}
+
+	public String toString() {
+		return "RDataFrame[" + nrow + "x" + types.size() + "]";
+	}
+}
@@ -0,0 +1,118 @@
+package org.rosuda.JRI;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/** Work queue feeding the R thread. Any number of threads may {@link #post} tasks, but only the thread that runs R consumes them (see {@link #drain}), so this is a multi-producer/single-consumer queue. Posting is lock-free: producers never enter the engine monitor nor {@link Rengine#getRsync() Rsync}. The R thread obtains the lock once and then runs all pending tasks back-to-back. The R thread consumes tasks while it is idle: waiting for work in {@link #await} or, if the R event loop is running, whenever R asks for console input and each time the console callback calls {@link Rengine#rniIdle} while waiting for the input.
+@since JRI 0.5-5
+*/
+final class RDispatcher {
+	/** a single unit of work together with the future that receives its result */
+	static final class Task<T> implements Runnable {
+		final Rengine eng;
+		final Function<Rengine, T> fn;
+		final CompletableFuture<T> future;
+
+		Task(Rengine eng, Function<Rengine, T> fn) {
+			this.eng = eng;
+			this.fn = fn;
+			future = new CompletableFuture<T>();
+		}
+
+		/** runs the task (unless it was cancelled in the meantime) and completes the future */
+		public void run() {
+			if (future.isDone()) return;
+			try {
+				future.complete(fn.apply(eng));
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		}
+	}
+
+	/** {@link #await} result: nothing happened (timeout) */
+	static final int EV_NONE = 0;
+	/** {@link #await} result: R input handlers have pending activity */
+	static final int EV_HANDLERS = 1;
+	/** {@link #await} result: woken up explicitly */
+	static final int EV_WAKEUP = 2;
+
+	/** engine whose R thread consumes the tasks */
+	final Rengine eng;
+
+	/** pending tasks */
+	final ConcurrentLinkedQueue<Task<?>> queue = new ConcurrentLinkedQueue<Task<?>>();
+
+	/** thread currently waiting in {@link #await} or <code>null</code> */
+	volatile Thread waiter;
+
+	/** if <code>true</code> the R thread waits in {@link Rengine#rniWaitEvent} which also watches R input handlers, otherwise it is parked and polls */
+	volatile boolean nativeWait;
+
+	RDispatcher(Rengine eng) {
+		this.eng = eng;
+	}
+
+	/** enqueue a task and wake up the R thread if it is idle
+		@param t task to run */
+	void post(Task<?> t) {
+		queue.add(t);
+		wakeup();
+	}
+
+	/** wake up the R thread if it is waiting for work */
+	void wakeup() {
+		Thread w = waiter;
+		if (w != null) {
+			if (nativeWait) eng.rniWakeup();
+			LockSupport.unpark(w);
+		}
+	}
+
+	/** @return <code>true</code> if there are tasks waiting to be run */
+	boolean hasWork() {
+		return !queue.isEmpty();
+	}
+
+	/** run all pending tasks including those posted while draining. Must be called on the R thread while holding <code>Rsync</code>.
+		@return number of tasks run */
+	int drain() {
+		int n = 0;
+		Task<?> t;
+		while ((t = queue.poll()) != null) {
+			t.run();
+			n++;
+		}
+		return n;
+	}
+
+	/** block the R thread until work is posted, collected objects are waiting to be released, an R input handler has activity, the engine is shut down or asked to start the main loop. If waiting for events natively is not supported, the thread is parked instead and R input handlers are not watched - in that case the wait also ends when the thread is interrupted or the timeout elapses.
+		@param ms polling timeout (in milliseconds), only used if native waiting is not supported
+		@return one of <code>EV_NONE</code>, <code>EV_HANDLERS</code> or <code>EV_WAKEUP</code> */
+	int await(long ms) {
+		waiter = Thread.currentThread();
+		try {
+			// the waiter must be visible before we look at the queue, otherwise a post() could slip in between
+			if (!queue.isEmpty() || eng.releaseQueue.hasCollected() || !eng.alive || eng.runLoop) return EV_WAKEUP;
+			if (nativeWait) {
+				int ev = eng.rniWaitEvent(-1);
+				if (ev >= 0) return ev;
+				nativeWait = false; // something went wrong, fall back to polling
+			}
+			LockSupport.parkNanos(this, ms * 1000000L);
+			return EV_NONE;
+		} finally {
+			waiter = null;
+		}
+	}
+
+	/** fail all pending tasks, used when R is shutting down
+		@param cause exception to report to the waiting callers */
+	void abortAll(Throwable cause) {
+		Task<?> t;
+		while ((t = queue.poll()) != null)
+			t.future.completeExceptionally(cause);
+	}
+}
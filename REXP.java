@@ -7,9 +7,12 @@ import java.util.Vector;
  * only converts certain SEXPs references from R into Java obejcts, but
  * eventually bi-directional support should be added. The currently supported
  * objects are string, integer and numeric vectors. All other types can be
- * accessed only using {@link #xp} reference and RNI methods.
+ * accessed only using {@link #xp} reference and RNI methods.<p>
+ * R objects referenced by lazy REXPs and references are preserved as long as
+ * the REXP is reachable. Once it is garbage-collected the object is released
+ * by the R thread, or it can be released right away using {@link #close}.
  */
-public class REXP {
+public class REXP implements AutoCloseable {
 	/** xpression type: NULL */
 	public static final int XT_NULL = 0;
 
@@ -173,88 +176,141 @@ public class REXP {
 		this(re, exp, true);
 	}
 	
-	protected void finalize() throws Throwable {
+	/** releases the underlying R object if it was preserved by this REXP (lazy REXPs, references and data frames, see {@link #asDataFrame}). Otherwise the object is released some time after this REXP was garbage-collected. Content that was converted already remains accessible, but the REXP can no longer be passed to R and parts of a lazy REXP which were not converted yet must not be accessed anymore.
+		@since JRI 0.5-5 */
+	public void close() {
+		RReleaseQueue.Ref r = ref;
+		if (r == null) return;
+		long x = eng.releaseQueue.take(r);
+		if (x == 0) return;
+		Mutex m = eng.getRsync();
+		boolean obtainedLock = m.safeLock();
 		try {
-			if (Xt == XT_NONE && xp != 0 && eng != null) // release underlying R obejct if it was preserved
-				eng.rniRelease(xp);
+			synchronized (eng) {
+				pending = false;
+				xp = 0;
+				eng.rniRelease(x);
+			}
 		} finally {
-			super.finalize();
+			if (obtainedLock) m.unlock();
 		}
 	}
 
 	public REXP(Rengine re, long exp, boolean convert) {
+		this(re, exp, convert, false);
+	}
+
+	/** create a REXP from a R SEXP reference, optionally deferring the conversion. In lazy mode the R object is preserved and nothing is converted until the content is accessed for the first time (by any of the <code>as...</code> methods, {@link #getContent} or {@link #getType}). Elements of generic vectors and lists as well as attributes are lazy again, i.e. only the parts which are actually used are ever converted. Converted content is cached. Accessors obtain <code>Rsync</code> when they need to convert, so lazy REXPs can be used from any thread. Lazy REXPs are passed back to R by reference (see {@link Rengine#assign(String,REXP)}).
+		@param re engine
+		@param exp reference to the R object
+		@param convert if <code>false</code> the REXP is a reference only (and <code>lazy</code> has no effect)
+		@param lazy if <code>true</code> the conversion is deferred until the content is needed
+		@since JRI 0.5-5 */
+	public REXP(Rengine re, long exp, boolean convert, boolean lazy) {
 		eng = re;
 		xp = exp;
-		rtype = re.rniExpType(xp);
 		//System.out.println("["+rtype+"@"+exp+","+convert+"]");
 
-		if (!convert) {
+		if (!convert || lazy) {
+			rtype = re.rniExpType(xp);
 			Xt = XT_NONE;
-			if (re != null && xp != 0)
+			if (convert) this.lazy = pending = true;
+			if (re != null && xp != 0) {
 				re.rniPreserve(xp); // preserve the object so it doesn't get garbage-collected while we are referencing it
+				ref = re.releaseQueue.register(this, xp);
+			}
 			return;
 		}
-				
+		convert(re);
+	}
+
+	/** create a lazy REXP for a part (element or attribute) of a lazy REXP. No R calls are made at this point.
+		@param re engine
+		@param exp reference to the R object
+		@param owner REXP holding the R object which contains <code>exp</code>. It is referenced to make sure the R object stays preserved as long as the part is in use. The containing object must have been marked as not mutable (see {@link Rengine#rniMarkNotMutable}), otherwise R could drop the part by modifying it in place. */
+	REXP(Rengine re, long exp, REXP owner) {
+		eng = re;
+		xp = exp;
+		rtype = -1;
+		Xt = XT_NONE;
+		this.owner = owner;
+		lazy = pending = true;
+	}
+
+	/** create a converted REXP, used by the native tree converter (see {@link Rengine#rniConvertTree})
+		@param re engine
+		@param exp reference to the R object
+		@param rtype R type of the object
+		@param xt type of the content
+		@param cont content */
+	REXP(Rengine re, long exp, int rtype, int xt, Object cont) {
+		eng = re;
+		xp = exp;
+		this.rtype = rtype;
+		Xt = xt;
+		if (cont instanceof RStringVector) // character vectors are decoded on first access
+			strings = (RStringVector) cont;
+		else
+			this.cont = cont;
+	}
+
+	/** convert the content of the R object. Parts (elements, attributes) are created lazily if this REXP is lazy. Type, attributes and content are obtained in one native call (see {@link Rengine#rniDescribe}). */
+	void convert(Rengine re) {
+		int[] info = new int[3];
+		Object[] d = re.rniDescribe(xp, info);
+		if (d == null) {
+			Xt = XT_NULL;
+			return;
+		}
+		rtype = info[0];
+		dim = (int[]) d[4];
+		Object p = d[0];
 		if (rtype == STRSXP) {
-			String[] s = re.rniGetStringArray(xp);
-			if (s != null && s.length == 1) {
-				cont = s[0];
-				Xt = XT_STR;
-			} else {
-				cont = s;
-				Xt = XT_ARRAY_STR;
-			}
+			// kept in compact form, the strings are decoded on first access
+			strings = (RStringVector) p;
+			Xt = (strings != null && strings.length() == 1) ? XT_STR : XT_ARRAY_STR;
 		} else if (rtype == INTSXP) {
 			cont = null;
-			if (re.rniInherits(xp, "factor")) {
-				long levx = re.rniGetAttr(xp, "levels");
-				if (levx != 0) {
-					String[] levels = null;
-					// we're using low-lever calls here (FIXME?)
-					int rlt = re.rniExpType(levx);
-					if (rlt == STRSXP) {
-						levels = re.rniGetStringArray(levx);
-						int[] ids = re.rniGetIntArray(xp);
-						cont = new RFactor(ids, levels, 1);
-						Xt = XT_FACTOR;
-					}
-				}
+			if ((info[2] & Rengine.DESC_FACTOR) != 0 && d[3] != null) {
+				cont = new RFactor((int[]) p, (String[]) d[3], 1);
+				Xt = XT_FACTOR;
 			}
 			// if it's not a factor, then we use int[] instead
 			if (cont == null ) {
-				cont = re.rniGetIntArray(xp);
+				cont = p;
 				Xt = XT_ARRAY_INT;
 			}
 		} else if (rtype == REALSXP) {
-			cont = re.rniGetDoubleArray(xp);
+			cont = p;
 			Xt = XT_ARRAY_DOUBLE;
 		} else if (rtype == LGLSXP) {
-		    cont = re.rniGetBoolArrayI(xp);
+		    cont = p;
 		    Xt = XT_ARRAY_BOOL_INT;
 		} else if (rtype == VECSXP) {
-			long[] l = re.rniGetVector(xp);
+			long[] l = (long[]) p;
+			if (lazy) re.rniMarkNotMutable(xp); // the lazy elements are not preserved, so R must not modify them in place
 			cont = new RVector();
 			int i = 0;
-			//System.out.println("VECSXP, length="+l.length);
 			Xt = XT_VECTOR;
 			while (i < l.length)
-				((RVector)cont).addElement(new REXP(re, l[i++]));
-			long na = re.rniGetAttr(xp, "names");
-			if (na!=0 && re.rniExpType(na)==STRSXP)
-				((RVector)cont).setNames(re.rniGetStringArray(na));
+				((RVector)cont).addElement(lazy ? new REXP(re, l[i++], this) : new REXP(re, l[i++]));
+			if (!lazy && re.rniInherits(xp, "data.frame")) keepFrame();
+			if (d[2] != null)
+				((RVector)cont).setNames((String[]) d[2]);
 		} else if (rtype == LISTSXP) {
-			long car = re.rniCAR(xp);
-			long cdr = re.rniCDR(xp);
-			long tag = re.rniTAG(xp);
+			long[] l = (long[]) p;
+			long car = l[0], cdr = l[1], tag = l[2];
+			if (lazy) re.rniMarkNotMutable(xp);
 
-			REXP cdrx = (cdr==0 || re.rniExpType(cdr)!=LISTSXP)?null:new REXP(re,re.rniCDR(xp));
-			cont = new RList(new REXP(re,car), (tag==0)?null:new REXP(re,tag), cdrx);
+			REXP cdrx = (cdr==0)?null:(lazy ? new REXP(re, cdr, this) : new REXP(re,cdr));
+			cont = new RList(lazy ? new REXP(re, car, this) : new REXP(re,car), (tag==0)?null:new REXP(re,tag), cdrx);
 			Xt = XT_LIST;
 		} else if (rtype == SYMSXP) {
-			cont = re.rniGetSymbolName(xp);
+			cont = p;
 			Xt = XT_SYM;
 		} else if (rtype == CPLXSXP) {
-			RComplexNumber[] s = re.rniGetComplexNumberArray(xp);
+			double[] z = (double[]) p;
+			RComplexNumber[] s = (z == null) ? null : new RComplexVector(z).toArray();
 			if(s != null && s.length == 1) {
 				cont = s[0];
 				Xt = XT_COMPLEX;
@@ -269,6 +325,48 @@ public class REXP {
 		//System.out.println("new REXP: "+toString());
 	}
 
+	/** converts the content of a lazy REXP if it was not converted yet */
+	void materialize() {
+		Mutex m = eng.getRsync();
+		boolean obtainedLock = m.safeLock();
+		try {
+			synchronized (eng) {
+				if (pending) {
+					convert(eng);
+					pending = false;
+				}
+			}
+		} finally {
+			if (obtainedLock) m.unlock();
+		}
+	}
+
+	/** preserve the R object of a converted data frame so that {@link #asDataFrame} can read it later. Called with <code>Rsync</code> held by the conversion (including the native tree converter). */
+	void keepFrame() {
+		if (ref != null || eng == null || xp == 0) return;
+		eng.rniPreserve(xp);
+		ref = eng.releaseQueue.register(this, xp);
+	}
+
+	/** returns <code>true</code> if this REXP was created in lazy mode (see {@link #REXP(Rengine,long,boolean,boolean)})
+		@return <code>true</code> if lazy
+		@since JRI 0.5-5 */
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	/** set if this REXP was created in lazy mode */
+	boolean lazy;
+
+	/** set while the conversion of a lazy REXP is pending */
+	volatile boolean pending;
+
+	/** registration of {@link #xp} if it was preserved by this REXP and must be released, <code>null</code> otherwise */
+	RReleaseQueue.Ref ref;
+
+	/** lazy REXP whose R object contains this one (or <code>null</code>) */
+	REXP owner;
+
 	/** xpression type */
 	int Xt;
 
@@ -278,6 +376,23 @@ public class REXP {
 	/** content of the xpression - its object type is dependent of {@link #Xt} */
 	Object cont;
 
+	/** dimensions of the R object (the <code>dim</code> attribute) captured during conversion or <code>null</code> if there are none */
+	int[] dim;
+
+	/** content of character vectors obtained from R in compact form, {@link #cont} is filled from it on first access (see {@link #decodeStrings}) */
+	RStringVector strings;
+
+	/** set once {@link #strings} has been decoded into {@link #cont} */
+	boolean decoded;
+
+	/** decodes the compact form of a character vector into the content (<code>String</code> or <code>String[]</code>) unless it was done already. It is synchronized so the content is safely published to any thread that accesses it. */
+	synchronized void decodeStrings() {
+		if (decoded || strings == null) return;
+		String[] s = strings.toArray();
+		cont = (Xt == XT_STR) ? (Object) s[0] : (Object) s;
+		decoded = true;
+	}
+
 	/** cached binary length; valid only if positive */
 	long cachedBinaryLength = -1;
 
@@ -380,6 +495,21 @@ public class REXP {
 		*/
 	public REXP getAttribute(String name) {
 		// FIXME: we could do some caching if attr is not null ...
+		if (lazy) {
+			Mutex m = eng.getRsync();
+			boolean obtainedLock = m.safeLock();
+			try {
+				long aref = eng.rniGetAttr(xp, name);
+				if (aref == 0) return null;
+				// getAttrib creates new objects for compact row names and names of pairlists, those are not held by this object so they have to be preserved
+				if (name.equals("names") || name.equals("row.names"))
+					return new REXP(eng, aref, true, true);
+				eng.rniMarkNotMutable(xp); // the attribute is only held by this object which must not be modified in place
+				return new REXP(eng, aref, this);
+			} finally {
+				if (obtainedLock) m.unlock();
+			}
+		}
 		long aref = eng.rniGetAttr(xp, name);
 		if (aref==0) return null;
 		return new REXP(eng, aref, (Xt != XT_NONE));
@@ -391,6 +521,8 @@ public class REXP {
 	 * @return content of the REXP
 	 */
 	public Object getContent() {
+		if (pending) materialize();
+		if (strings != null) decodeStrings();
 		return cont;
 	}
 
@@ -401,6 +533,7 @@ public class REXP {
 	 * @return xpression type
 	 */
 	public int getType() {
+		if (pending) materialize();
 		return Xt;
 	}
 
@@ -415,6 +548,8 @@ public class REXP {
 
 	/** return the first element of a character vector if this REXP is a character vector of length 1 or more, return <code>null</code> otherwise */
 	public String asString() {
+		if (pending) materialize();
+		if (strings != null) return (strings.length() > 0) ? strings.get(0) : null;
 		if (cont == null)
 			return null;
 		if (Xt == XT_STR)
@@ -428,11 +563,14 @@ public class REXP {
 
 	/** return the name of the symbol represented by this REXP if is it a symbol or <code>null</code> otherwise */
 	public String asSymbolName() {
+		if (pending) materialize();
 		return (Xt == XT_SYM)?((String) cont):null;
 	}
 	
 	/** return the contents of this REXP as an array of strings if this REXP is a character vector, return <code>null</code> otherwise */
 	public String[] asStringArray() {
+		if (pending) materialize();
+		if (strings != null) decodeStrings();
 		if (cont == null)
 			return null;
 		if (Xt == XT_STR) {
@@ -451,6 +589,7 @@ public class REXP {
 	 * @return int content or 0 if the REXP is no integer
 	 */
 	public int asInt() {
+		if (pending) materialize();
 		if (Xt == XT_ARRAY_INT) {
 			int i[] = (int[]) cont;
 			if (i != null && i.length > 0)
@@ -465,6 +604,7 @@ public class REXP {
 	 * @return double content or 0.0 if the REXP is no double
 	 */
 	public double asDouble() {
+		if (pending) materialize();
 		if (Xt == XT_ARRAY_DOUBLE) {
 			double d[] = (double[]) cont;
 			if (d != null && d.length > 0)
@@ -479,6 +619,7 @@ public class REXP {
 	 * @return Vector content or <code>null</code> if the REXP is no Vector
 	 */
 	public RVector asVector() {
+		if (pending) materialize();
 		return (Xt == XT_VECTOR) ? (RVector) cont : null;
 	}
 
@@ -489,6 +630,7 @@ public class REXP {
 	 *         factor
 	 */
 	public RFactor asFactor() {
+		if (pending) materialize();
 		return (Xt == XT_FACTOR) ? (RFactor) cont : null;
 	}
 
@@ -498,6 +640,7 @@ public class REXP {
 	 * @return {@link RList} content or <code>null</code> if the REXP is neither a list nor a generic vector
 	 */
 	public RList asList() {
+		if (pending) materialize();
 		return (Xt == XT_LIST) ?
 		(RList) cont :
 		( // for compatibility with Rserve we convert vectors to lists
@@ -512,6 +655,7 @@ public class REXP {
 	 *         logical value
 	 */
 	public RBool asBool() {
+	    if (pending) materialize();
 	    if (Xt == XT_ARRAY_BOOL_INT) {
 		int [] ba = (int[]) cont;
 		return (ba!=null && ba.length>0)?new RBool(ba[0]):null;
@@ -528,6 +672,7 @@ public class REXP {
 	 *         array of doubles or integers
 	 */
 	public double[] asDoubleArray() {
+		if (pending) materialize();
 		if (Xt == XT_ARRAY_DOUBLE)
 			return (double[]) cont;
 		if (Xt == XT_DOUBLE) {
@@ -560,6 +705,7 @@ public class REXP {
 	 * first complex number if it is an array, null otherwise.
 	 */
 	public RComplexNumber asComplexNumber() {
+		if (pending) materialize();
 		if(Xt == XT_COMPLEX)
 			return (RComplexNumber)cont;
 		else if(Xt == XT_ARRAY_COMPLEX)
@@ -572,6 +718,7 @@ public class REXP {
 	 * 1 array if the expression is a single complex number, null otherwise.
 	 */
 	public RComplexNumber[] asComplexNumberArray() {
+		if (pending) materialize();
 		if(Xt == XT_ARRAY_COMPLEX)
 			return (RComplexNumber[])cont;
 		else if(Xt == XT_COMPLEX) {
@@ -582,6 +729,57 @@ public class REXP {
 		return null;
 	}
 	
+	/** get the expression as a compact character vector. Pending lazy REXPs
+	 * and references are fetched from R without decoding the strings (see
+	 * {@link RStringVector}).
+	 * @return character vector or <code>null</code> if the expression is not
+	 * a character vector
+	 * @since JRI 0.5-5
+	 */
+	public RStringVector asStringVector() {
+		if ((pending || Xt == XT_NONE) && eng != null && xp != 0) {
+			Mutex m = eng.getRsync();
+			boolean obtainedLock = m.safeLock();
+			try {
+				return eng.rniGetStringBlob(xp);
+			} finally {
+				if (obtainedLock) m.unlock();
+			}
+		}
+		if (strings != null)
+			return strings;
+		if (Xt == XT_STR)
+			return new RStringVector(new String[] { (String) cont });
+		if (Xt == XT_ARRAY_STR)
+			return new RStringVector((String[]) cont);
+		return null;
+	}
+
+	/** get the expression as a complex vector. Pending lazy REXPs and
+	 * references are fetched from R in one piece without creating an object
+	 * for each element.
+	 * @return complex vector or <code>null</code> if the expression is not
+	 * complex
+	 * @since JRI 0.5-5
+	 */
+	public RComplexVector asComplexVector() {
+		if ((pending || Xt == XT_NONE) && eng != null && xp != 0) {
+			Mutex m = eng.getRsync();
+			boolean obtainedLock = m.safeLock();
+			try {
+				double[] d = eng.rniGetComplexArray(xp);
+				return (d == null) ? null : new RComplexVector(d);
+			} finally {
+				if (obtainedLock) m.unlock();
+			}
+		}
+		if (Xt == XT_COMPLEX)
+			return new RComplexVector(new RComplexNumber[] { (RComplexNumber) cont });
+		if (Xt == XT_ARRAY_COMPLEX)
+			return new RComplexVector((RComplexNumber[]) cont);
+		return null;
+	}
+
 	/** get the expression as a complex number matrix. Because of how R deals
 	 * with expressions, a matrix is simply an array with an extra attribute
 	 * that determines the matrix's dimensions. Therefore, the expression needs
@@ -591,14 +789,17 @@ public class REXP {
 	 * null otherwise.
 	 */
 	public RComplexNumber[][] asComplexNumberMatrix() {
+		if (pending) materialize();
 		if(Xt != XT_ARRAY_COMPLEX)
 			return null;
 		
-		REXP dim = getAttribute("dim");
-		if (dim == null || dim.Xt != XT_ARRAY_INT)
-			return null;
-		
-		int[] ds = dim.asIntArray();
+		int[] ds = dim; // captured during conversion
+		if (ds == null) {
+			REXP da = getAttribute("dim");
+			if (da == null)
+				return null;
+			ds = da.asIntArray(); // materializes lazy attributes
+		}
 		if (ds == null || ds.length != 2)
 			return null;
 		
@@ -634,6 +835,7 @@ public class REXP {
 	 *         array of integers
 	 */
 	public int[] asIntArray() {
+		if (pending) materialize();
 		if (Xt == XT_ARRAY_INT || Xt == XT_ARRAY_BOOL_INT)
 			return (int[]) cont;
 		if (Xt == XT_INT) {
@@ -656,29 +858,66 @@ public class REXP {
 	 *         doubles
 	 */
 	public double[][] asDoubleMatrix() {
+		RMatrix m = asRMatrix();
+		return (m == null) ? null : m.toArray();
+	}
+
+	/**
+	 * returns the content of the REXP as a numeric matrix in column-major
+	 * order. If the content has been converted already, the matrix uses it
+	 * directly (no copy is made), otherwise data and dimensions are fetched
+	 * from R in one call.
+	 * 
+	 * @return matrix or <code>null</code> if the contents is no 2-dimensional
+	 *         numeric (or integer) matrix
+	 * @since JRI 0.5-5
+	 */
+	public RMatrix asRMatrix() {
+		if (pending && eng != null && xp != 0) {
+			// avoid converting the whole object just to get its data and dimensions
+			Mutex m = eng.getRsync();
+			boolean obtainedLock = m.safeLock();
+			try {
+				int[] dim = new int[2];
+				double[] d = eng.rniGetDoubleMatrix(xp, dim);
+				return (d == null) ? null : new RMatrix(d, dim[0], dim[1]);
+			} finally {
+				if (obtainedLock) m.unlock();
+			}
+		}
 		double[] ct = asDoubleArray();
-		if (ct==null) return null;
-		REXP dim = getAttribute("dim");
-		if (dim == null || dim.Xt != XT_ARRAY_INT)
-			return null; // we need dimension attr
-		int[] ds = dim.asIntArray();
-		if (ds == null || ds.length != 2)
+		int[] ds = dim; // captured during conversion, so R is not involved
+		if (ct == null || ds == null || ds.length != 2 || (long) ds[0] * (long) ds[1] != ct.length)
 			return null; // matrix must be 2-dimensional
-		int m = ds[0], n = ds[1];
-		double[][] r = new double[m][n];
-		if (ct == null)
-			return null;
 		// R stores matrices as matrix(c(1,2,3,4),2,2) = col1:(1,2), col2:(3,4)
-		// we need to copy everything, since we create 2d array from 1d array
-		int i = 0, k = 0;
-		while (i < n) {
-			int j = 0;
-			while (j < m) {
-				r[j++][i] = ct[k++];
-			}
-			i++;
+		return new RMatrix(ct, ds[0], ds[1]);
+	}
+
+	/**
+	 * get the expression as a data frame. All columns are fetched from R in
+	 * one call in their primitive form (see {@link RDataFrame}), so no REXP is
+	 * created for the columns or their elements.<p>
+	 * The data frame is read from the R object, so this is only supported for
+	 * REXPs which keep the object alive. Besides references and lazy REXPs
+	 * these are converted data frames (for example
+	 * <code>eng.eval("iris").asDataFrame()</code>): the conversion preserves
+	 * the R object of every data frame until the REXP is closed or
+	 * garbage-collected.
+	 * 
+	 * @return data frame or <code>null</code> if the expression is not a data
+	 *         frame or the R object was released already
+	 * @since JRI 0.5-5
+	 */
+	public RDataFrame asDataFrame() {
+		if (eng == null || xp == 0 || (ref == null && owner == null))
+			return null;
+		Mutex m = eng.getRsync();
+		boolean obtainedLock = m.safeLock();
+		try {
+			return eng.rniGetDataFrame(xp);
+		} finally {
+			if (obtainedLock) m.unlock();
 		}
-		return r;
 	}
 
 	/** this is just an alias for {@link #asDoubleMatrix()}. */
@@ -691,11 +930,13 @@ public class REXP {
 	 * numbers, false otherwise.
 	 */
 	public boolean isComplexNumber() {
+		if (pending) materialize();
 		return Xt == XT_COMPLEX || Xt == XT_ARRAY_COMPLEX;
 	}
 	
 	/** checks if the number is an array of complex numbers. */
 	public boolean isComplexNumberArray() {
+		if (pending) materialize();
 		return Xt == XT_ARRAY_COMPLEX;
 	}
 
@@ -706,6 +947,8 @@ public class REXP {
 	 * @return String descriptive representation of the xpression
 	 */
 	public String toString() {
+		if (pending) materialize();
+		if (strings != null) decodeStrings();
 		StringBuffer sb = new StringBuffer("[" + xtName(Xt) + " ");
 
 		if (attr != null)
@@ -9,88 +9,163 @@ import java.util.*;
 /** representation of a factor variable. In R there is no actual xpression
     type called "factor", instead it is coded as an int vector with a list
     attribute. The parser code of REXP converts such constructs directly into
-    the RFactor objects and defines an own XT_FACTOR type 
-    
+    the RFactor objects and defines an own XT_FACTOR type.<p>
+    Cases are stored as an array of (0-based) level indices, missing values
+    are represented by {@link #NA}.
+
     @version $Id$
-*/    
+*/
 public class RFactor extends Object {
-    /** IDs (content: Integer) each entry corresponds to a case, ID specifies the category */
-    Vector id;
-    /** values (content: String), ergo category names */
-    Vector val;
+    /** code of a missing value (<code>NA</code>)
+	@since JRI 0.5-5 */
+    public static final int NA = Integer.MIN_VALUE;
+
+    /** IDs (level index or NA) - each entry corresponds to a case, only the first <code>n</code> entries are used */
+    int[] id;
+    /** number of cases */
+    int n;
+    /** values, ergo category names - only the first <code>nlev</code> entries are used */
+    String[] val;
+    /** number of levels */
+    int nlev;
+    /** level index (name to ID), created on first lookup */
+    HashMap<String, Integer> index;
 
     /** create a new, empty factor var */
-    public RFactor() { id=new Vector(); val=new Vector(); }
-    
+    public RFactor() { id=new int[16]; val=new String[4]; }
+
     /** create a new factor variable, based on the supplied arrays.
-		@param i array of IDs (0..v.length-1)
-		@param v values - category names */		
+		@param i array of IDs (0..v.length-1 or {@link #NA})
+		@param v values - category names */
     public RFactor(int[] i, String[] v) {
-		this(i, v, 0);
+		this((i==null)?null:(int[])i.clone(), (v==null)?null:(String[])v.clone(), 0);
 	}
 
-    /** create a new factor variable, based on the supplied arrays.
-		@param i array of IDs (base .. v.length-1+base)
+    /** create a new factor variable, based on the supplied arrays. The arrays are used directly (IDs are shifted in place if <code>base</code> is not 0), so they must not be used by the caller afterwards.
+		@param i array of IDs (base .. v.length-1+base or <code>NA</code>)
 		@param v values - cotegory names
 		@param base of the indexing
 		*/
     RFactor(int[] i, String[] v, int base) {
-		id=new Vector(); val=new Vector();
-		int j;
-		if (i!=null && i.length>0)
-			for(j=0;j<i.length;j++)
-				id.addElement(new Integer(i[j]-base));
-		if (v!=null && v.length>0)
-			for(j=0;j<v.length;j++)
-				val.addElement(v[j]);
+		id=(i==null)?new int[0]:i;
+		val=(v==null)?new String[0]:v;
+		n=id.length; nlev=val.length;
+		if (base!=0)
+			for (int j=0;j<n;j++)
+				if (id[j]!=NA) id[j]-=base;
+    }
+
+    /** returns the ID of a level
+	@param v level name
+	@return ID or -1 if there is no such level
+	@since JRI 0.5-5 */
+    public int indexOf(String v) {
+	if (index==null) {
+	    index=new HashMap<String, Integer>(nlev*2+16);
+	    for (int j=nlev-1;j>=0;j--) index.put(val[j], new Integer(j));
+	}
+	Integer k=index.get(v);
+	return (k==null)?-1:k.intValue();
     }
-   
+
     /** add a new element (by name)
-	@param v value */
+	@param v value (<code>null</code> adds a missing value) */
     public void add(String v) {
-	int i=val.indexOf(v);
-	if (i<0) {
-	    i=val.size();
-	    val.addElement(v);
-	};
-	id.addElement(new Integer(i));
+	int i=NA;
+	if (v!=null) {
+	    i=indexOf(v);
+	    if (i<0) {
+		if (nlev==val.length) val=Arrays.copyOf(val, val.length*2+4);
+		i=nlev++;
+		val[i]=v;
+		index.put(v, new Integer(i));
+	    }
+	}
+	if (n==id.length) id=Arrays.copyOf(id, id.length*2+16);
+	id[n++]=i;
     }
 
-    /** returns name for a specific ID 
+    /** returns name for a specific ID
 	@param i ID
-	@return name. may throw exception if out of range */
+	@return name or <code>null</code> if out of range or missing */
     public String at(int i) {
-	if (i < 0 || i >= id.size()) return null;
-	int j = ((Integer)id.elementAt(i)).intValue();
-	/* due to the index shift NA (INT_MIN) will turn into INT_MAX if base is 1 */
-	return (j < 0 || j > 2147483640) ? null : ((String)val.elementAt(j));
+	if (i < 0 || i >= n) return null;
+	int j = id[i];
+	return (j < 0 || j >= nlev) ? null : val[j];
+    }
+
+    /** returns the ID (level index) of a case
+	@param i case
+	@return ID or {@link #NA}
+	@since JRI 0.5-5 */
+    public int codeAt(int i) {
+	if (i < 0 || i >= n) throw new IndexOutOfBoundsException("case "+i+" is out of range");
+	return id[i];
     }
 
     /** returns the number of caes */
-    public int size() { return id.size(); }
+    public int size() { return n; }
+
+    /** returns the number of levels
+	@return number of levels
+	@since JRI 0.5-5 */
+    public int levelCount() { return nlev; }
+
+    /** returns the name of a level
+	@param j ID
+	@return name or <code>null</code> if out of range
+	@since JRI 0.5-5 */
+    public String level(int j) {
+	return (j < 0 || j >= nlev) ? null : val[j];
+    }
+
+    /** returns the IDs of all cases
+	@return new array of IDs (0-based, {@link #NA} for missing values)
+	@since JRI 0.5-5 */
+    public int[] getCodes() { return Arrays.copyOf(id, n); }
+
+    /** copies IDs of a range of cases into an existing array
+	@param from first case
+	@param dst destination array
+	@param off index in the destination array
+	@param len number of cases to copy
+	@since JRI 0.5-5 */
+    public void getCodes(int from, int[] dst, int off, int len) {
+	if (from < 0 || len < 0 || from + len > n) throw new IndexOutOfBoundsException("cases "+from+".."+(from+len-1)+" are out of range");
+	System.arraycopy(id, from, dst, off, len);
+    }
+
+    /** returns the names of all levels
+	@return new array of level names
+	@since JRI 0.5-5 */
+    public String[] getLevels() { return Arrays.copyOf(val, nlev); }
+
+    /** returns the level names of all cases
+	@return new array of names (<code>null</code> for missing values)
+	@since JRI 0.5-5 */
+    public String[] asStrings() {
+	String[] s=new String[n];
+	for (int i=0;i<n;i++) {
+	    int j=id[i];
+	    if (j >= 0 && j < nlev) s[i]=val[j];
+	}
+	return s;
+    }
 
     /** displayable representation of the factor variable */
     public String toString() {
-	//return "{"+((val==null)?"<null>;":("levels="+val.size()+";"))+((id==null)?"<null>":("cases="+id.size()))+"}";
 	StringBuffer sb=new StringBuffer("{levels=(");
-	if (val==null)
-	    sb.append("null");
-	else
-	    for (int i=0;i<val.size();i++) {
-		sb.append((i>0)?",\"":"\"");
-		sb.append((String)val.elementAt(i));
-		sb.append("\"");
-	    };
+	for (int i=0;i<nlev;i++) {
+	    sb.append((i>0)?",\"":"\"");
+	    sb.append(val[i]);
+	    sb.append("\"");
+	};
 	sb.append("),ids=(");
-	if (id==null)
-	    sb.append("null");
-	else
-	    for (int i=0;i<id.size();i++) {
-		if (i>0) sb.append(",");
-		sb.append((Integer)id.elementAt(i));
-	    };
+	for (int i=0;i<n;i++) {
+	    if (i>0) sb.append(",");
+	    if (id[i]==NA) sb.append("NA"); else sb.append(id[i]);
+	};
 	sb.append(")}");
 	return sb.toString();
     }
 }
-
@@ -37,11 +37,7 @@ public class RList extends Object {
     
 	/** fake constructor to keep compatibility with Rserve (for now, will be gone soon) */
 	public RList(RVector v) {
-		Vector n = v.getNames();
-		if (n != null) {
-			keys = new String[n.size()];
-			n.copyInto(keys);
-		}
+		keys = v.getNameArray();
 		values=new REXP[v.size()];
 		v.copyInto(values);
 		dirtyCache=false;
@@ -12,7 +12,7 @@ public interface RMainLoopCallbacks {
 	@param re calling engine
 	@param which identifies whether R enters (1) or exits (0) the busy state */
     public void   rBusy         (Rengine re, int which);
-    /** called when R waits for user input. During the duration of this callback it is safe to re-enter R, and very often it is also the only time. The implementation is free to block on this call until the user hits Enter, but in JRI it is a good idea to call {@link Rengine.rniIdle()} occasionally to allow other event handlers (e.g graphics device UIs) to run. Implementations should NEVER return immediately even if there is no input - such behavior will result in a fast cycling event loop which makes the use of R pretty much impossible.
+    /** called when R waits for user input. During the duration of this callback it is safe to re-enter R, and very often it is also the only time. The implementation is free to block on this call until the user hits Enter, but in JRI it is a good idea to call {@link Rengine.rniIdle()} occasionally to allow other event handlers (e.g graphics device UIs) to run. Since JRI 0.5-5 this also runs tasks submitted via {@link Rengine#submit} (and thus {@link Rengine#execute}) in the meantime, otherwise they have to wait until the callback returns. Implementations should NEVER return immediately even if there is no input - such behavior will result in a fast cycling event loop which makes the use of R pretty much impossible.
 	@param re calling engine
 	@param prompt prompt to be displayed at the console prior to user's input
 	@param addToHistory flag telling the handler whether the input should be considered for adding to history (!=0) or not (0)
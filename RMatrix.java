@@ -0,0 +1,148 @@
+package org.rosuda.JRI;
+
+/** Numeric matrix in the representation used by R: a flat array with the elements stored column by column (column-major order). Unlike {@link REXP#asDoubleMatrix} which creates one Java array per row, an RMatrix simply wraps the data, so no copy is needed. Rows and columns can be accessed through lightweight views and the contents can be copied into an existing array in either order.<p>
+Matrices obtained by {@link REXP#asRMatrix} share the data array with the REXP, so they should be treated as read-only.
+@since JRI 0.5-5
+*/
+public class RMatrix {
+	/** contents in column-major order */
+	final double[] data;
+	/** number of rows */
+	final int nrow;
+	/** number of columns */
+	final int ncol;
+
+	/** view of a row or a column of a matrix. It doesn't copy any data, so changes in the matrix are visible through the view. */
+	public class View {
+		final int off;
+		final int stride;
+		final int len;
+
+		View(int off, int stride, int len) {
+			this.off = off;
+			this.stride = stride;
+			this.len = len;
+		}
+
+		/** returns the number of elements
+			@return length of the row or column */
+		public int length() {
+			return len;
+		}
+
+		/** returns an element
+			@param k index in the row or column
+			@return value */
+		public double get(int k) {
+			if (k < 0 || k >= len) throw new IndexOutOfBoundsException("index " + k + " is out of range");
+			return data[off + k * stride];
+		}
+
+		/** copies all elements into an existing array
+			@param dst destination array
+			@param dstOff index of the first element in the destination array */
+		public void copyTo(double[] dst, int dstOff) {
+			if (stride == 1) {
+				System.arraycopy(data, off, dst, dstOff, len);
+				return;
+			}
+			int k = off;
+			for (int i = 0; i < len; i++, k += stride)
+				dst[dstOff + i] = data[k];
+		}
+
+		/** returns the elements as a new array
+			@return contents of the row or column */
+		public double[] toArray() {
+			double[] d = new double[len];
+			copyTo(d, 0);
+			return d;
+		}
+	}
+
+	/** creates a matrix from an array in column-major order (the array is not copied)
+		@param data contents, the length must be <code>nrow * ncol</code>
+		@param nrow number of rows
+		@param ncol number of columns */
+	public RMatrix(double[] data, int nrow, int ncol) {
+		if (nrow < 0 || ncol < 0 || data == null || (long) nrow * (long) ncol != data.length)
+			throw new IllegalArgumentException("data length doesn't match the dimensions");
+		this.data = data;
+		this.nrow = nrow;
+		this.ncol = ncol;
+	}
+
+	/** returns the number of rows
+		@return number of rows */
+	public int getRowCount() {
+		return nrow;
+	}
+
+	/** returns the number of columns
+		@return number of columns */
+	public int getColumnCount() {
+		return ncol;
+	}
+
+	/** returns an element
+		@param i row
+		@param j column
+		@return value */
+	public double get(int i, int j) {
+		if (i < 0 || i >= nrow || j < 0 || j >= ncol) throw new IndexOutOfBoundsException("[" + i + "," + j + "] is out of range");
+		return data[i + j * nrow];
+	}
+
+	/** returns the underlying array (not a copy)
+		@return contents in column-major order */
+	public double[] getData() {
+		return data;
+	}
+
+	/** returns a view of a row
+		@param i row
+		@return view */
+	public View row(int i) {
+		if (i < 0 || i >= nrow) throw new IndexOutOfBoundsException("row " + i + " is out of range");
+		return new View(i, nrow, ncol);
+	}
+
+	/** returns a view of a column
+		@param j column
+		@return view */
+	public View column(int j) {
+		if (j < 0 || j >= ncol) throw new IndexOutOfBoundsException("column " + j + " is out of range");
+		return new View(j * nrow, 1, nrow);
+	}
+
+	/** copies the contents into an existing array
+		@param dst destination array (must have space for <code>nrow * ncol</code> elements starting at <code>dstOff</code>)
+		@param dstOff index of the first element in the destination array
+		@param rowMajor if <code>true</code> the contents is stored row by row, otherwise column by column (as in R) */
+	public void copyTo(double[] dst, int dstOff, boolean rowMajor) {
+		if (!rowMajor || nrow == 1 || ncol == 1) {
+			System.arraycopy(data, 0, dst, dstOff, data.length);
+			return;
+		}
+		// walk the source sequentially, write strided
+		int k = 0;
+		for (int j = 0; j < ncol; j++)
+			for (int i = 0, d = dstOff + j; i < nrow; i++, d += ncol)
+				dst[d] = data[k++];
+	}
+
+	/** returns the contents as a two-dimensional array
+		@return array in the form <code>double[rows][cols]</code> */
+	public double[][] toArray() {
+		double[][] r = new double[nrow][ncol];
+		int k = 0;
+		for (int j = 0; j < ncol; j++)
+			for (int i = 0; i < nrow; i++)
+				r[i][j] = data[k++];
+		return r;
+	}
+
+	public String toString() {
+		return "RMatrix[" + nrow + "x" + ncol + "]";
+	}
+}
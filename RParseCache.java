@@ -0,0 +1,118 @@
+package org.rosuda.JRI;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Bounded cache of parsed R expressions. It maps source text to the parsed <code>EXPRSXP</code> so that repeated evaluation of the same expression skips the R parser entirely. Cached expressions are preserved on the R side (see {@link Rengine#rniPreserve}) and released once they are evicted. The least recently used entry is evicted when the cache is full.<p>The public methods which release expressions obtain {@link Rengine#getRsync() Rsync} and the engine monitor themselves, so they can be called from any thread. The cache of an engine is obtained by {@link Rengine#getParseCache}.
+@since JRI 0.5-5
+*/
+public final class RParseCache {
+	/** engine the cached expressions belong to */
+	final Rengine eng;
+
+	/** maximal number of entries */
+	int capacity;
+
+	/** entries in access order (the eldest entry is the least recently used one) */
+	final LinkedHashMap<String, Long> map;
+
+	// statistics
+	private volatile long hits, misses, evictions;
+
+	RParseCache(Rengine eng, int capacity) {
+		this.eng = eng;
+		this.capacity = capacity;
+		map = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	}
+
+	/** returns the parsed form of an expression, parsing it only if it is not in the cache. The returned reference is owned by the cache and may become invalid as soon as it is evicted, i.e. on the next call to <code>parse</code>, so it should be used right away. Must be called with <code>Rsync</code> held.
+		@param s expression (as string) to parse
+		@return reference to the parsed expression or 0 if parsing failed (parse errors are not cached) */
+	long parse(String s) {
+		Long c = map.get(s);
+		if (c != null) {
+			hits++;
+			return c.longValue();
+		}
+		misses++;
+		long pr = eng.rniParse(s, 1);
+		if (pr == 0) return 0;
+		eng.rniPreserve(pr);
+		map.put(s, new Long(pr));
+		trim(capacity);
+		return pr;
+	}
+
+	/** release least recently used entries until at most <code>n</code> entries remain
+		@param n number of entries to keep */
+	void trim(int n) {
+		Iterator<Map.Entry<String, Long>> i = map.entrySet().iterator();
+		while (map.size() > n && i.hasNext()) {
+			long pr = i.next().getValue().longValue();
+			i.remove();
+			eng.rniRelease(pr);
+			evictions++;
+		}
+	}
+
+	/** returns the maximal number of entries
+		@return capacity of the cache */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** sets the maximal number of entries. If the cache holds more entries than the new capacity, least recently used entries are released.
+		@param capacity new capacity (must be positive) */
+	public void setCapacity(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+		boolean obtainedLock = eng.getRsync().safeLock();
+		try {
+			synchronized (eng) {
+				this.capacity = capacity;
+				trim(capacity);
+			}
+		} finally {
+			if (obtainedLock) eng.getRsync().unlock();
+		}
+	}
+
+	/** returns the number of cached expressions
+		@return number of entries */
+	public int size() {
+		return map.size();
+	}
+
+	/** releases all cached expressions. Statistics are not affected, use {@link #resetStatistics} for that. */
+	public void clear() {
+		boolean obtainedLock = eng.getRsync().safeLock();
+		try {
+			synchronized (eng) {
+				trim(0);
+			}
+		} finally {
+			if (obtainedLock) eng.getRsync().unlock();
+		}
+	}
+
+	/** returns the number of lookups which were served from the cache
+		@return number of hits */
+	public long getHits() { return hits; }
+
+	/** returns the number of lookups which required parsing
+		@return number of misses */
+	public long getMisses() { return misses; }
+
+	/** returns the number of entries that were released to make room for others (or by {@link #clear})
+		@return number of evictions */
+	public long getEvictions() { return evictions; }
+
+	/** resets all statistics to zero */
+	public void resetStatistics() {
+		hits = misses = evictions = 0;
+	}
+
+	public String toString() {
+		return "RParseCache[" + map.size() + "/" + capacity + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+}
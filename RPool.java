@@ -0,0 +1,416 @@
+package org.rosuda.JRI;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Pool of R engines running in separate processes. Since R is single-threaded and only one {@link Rengine} can exist in a JVM, the only way to use more than one core for R is to run several R instances in separate processes. <code>RPool</code> launches a number of worker processes (see {@link RWorker}), each hosting one <code>Rengine</code>, and talks to them over local sockets.<p>Requests ({@link #eval}, {@link #assign}, {@link #call}) are dispatched to the worker with the fewest pending requests, so the pool can be used concurrently from any number of threads. Consecutive requests are not guaranteed to run in the same R instance - code that relies on state kept in R (e.g. variables assigned by an earlier request) must use a {@link Session}, which sticks to one worker. Note that sessions don't isolate their state from other requests that happen to run on the same worker.<p>If a worker fails (the process dies, the connection breaks or a response cannot be read), it is restarted automatically. The request that detected the failure fails with an {@link RPoolException}, as does any further use of a session bound to the failed worker.<p>Only converted content can be transferred between the processes, so results are always converted and references to R objects cannot be used. Vectors, factors and generic vectors (with names) are supported, pairlists, closures and the like arrive as <code>XT_UNKNOWN</code>. Of the attributes only dimensions are transferred besides names and levels, so matrices can be used as usual (e.g. <code>pool.eval("matrix(1:4,2)").asDoubleMatrix()</code>), but other attributes such as <code>class</code> are lost.
+@since JRI 0.5-5
+*/
+public class RPool implements AutoCloseable {
+	/** one worker process and the connection to it */
+	static final class Worker {
+		final int slot;
+		final Process process;
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		/** number of requests waiting for or being processed by this worker */
+		final AtomicInteger pending = new AtomicInteger();
+		/** number of open sessions bound to this worker */
+		final AtomicInteger sessions = new AtomicInteger();
+		volatile boolean dead;
+
+		Worker(int slot, Process process, Socket socket, DataInputStream in, DataOutputStream out) {
+			this.slot = slot;
+			this.process = process;
+			this.socket = socket;
+			this.in = in;
+			this.out = out;
+		}
+
+		/** send an encoded request and read the response. Any failure leaves the connection in an unknown state (e.g. in the middle of a response), so the worker is marked as dead before the exception is thrown and must be replaced (see {@link RPool#failed}).
+			@param req request as produced by {@link RPool#encode}
+			@return result or <code>null</code> if R reported an error
+			@throws IOException if the connection to the worker fails, the response is invalid or the request failed in the worker */
+		REXP request(byte[] req) throws IOException {
+			if (dead) throw new IOException("worker is dead");
+			pending.incrementAndGet();
+			try {
+				synchronized (this) {
+					if (dead) throw new IOException("worker is dead"); // failed while we were waiting
+					try {
+						out.write(req);
+						out.flush();
+						int status = in.readByte();
+						if (status == RWire.RESP_OK) return RWire.readREXP(in);
+						if (status == RWire.RESP_RERROR) return null;
+						// the worker may have failed in the middle of writing a response, so it cannot be trusted anymore
+						if (status == RWire.RESP_FAILED) throw new IOException("request failed in the R worker: " + RWire.readString(in));
+						throw new IOException("invalid response " + status);
+					} catch (IOException e) {
+						dead = true;
+						throw e;
+					} catch (RuntimeException e) { // malformed response
+						dead = true;
+						throw new IOException("invalid response", e);
+					}
+				}
+			} finally {
+				pending.decrementAndGet();
+			}
+		}
+
+		/** ask the worker to quit (if possible) and kill the process */
+		void shutdown() {
+			dead = true;
+			try {
+				synchronized (this) {
+					out.writeInt(RWire.OP_QUIT);
+					out.flush();
+				}
+			} catch (IOException e) {
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+			process.destroy();
+		}
+	}
+
+	/** a sequence of requests which are all processed by the same worker and thus the same R instance */
+	public final class Session implements AutoCloseable {
+		final Worker w;
+		boolean closed;
+
+		Session(Worker w) {
+			this.w = w;
+			w.sessions.incrementAndGet();
+		}
+
+		private REXP request(byte[] req) throws RPoolException {
+			if (closed) throw new IllegalStateException("session is closed");
+			if (w.dead) throw new RPoolException("R worker of this session has terminated", null);
+			try {
+				return w.request(req);
+			} catch (IOException e) {
+				throw failed(w, e);
+			}
+		}
+
+		/** evaluates an expression, see {@link RPool#eval}
+			@param s expression (as string) to parse and evaluate
+			@return result or <code>null</code> if an error occurred
+			@throws RPoolException if the worker failed while processing the request */
+		public REXP eval(String s) throws RPoolException {
+			return request(encode(RWire.OP_EVAL, s, null, null, null));
+		}
+
+		/** assigns a value to a symbol, see {@link RPool#assign}
+			@param sym symbol name
+			@param value value
+			@return <code>true</code> if successful
+			@throws RPoolException if the worker failed while processing the request */
+		public boolean assign(String sym, Object value) throws RPoolException {
+			return request(encode(RWire.OP_ASSIGN, sym, value, null, null)) != null;
+		}
+
+		/** calls an R function, see {@link RPool#call(String,Object...)}
+			@param fn name of the function
+			@param args arguments
+			@return result or <code>null</code> if an error occurred
+			@throws RPoolException if the worker failed while processing the request */
+		public REXP call(String fn, Object... args) throws RPoolException {
+			return request(encode(RWire.OP_CALL, fn, null, null, args));
+		}
+
+		/** calls an R function, see {@link RPool#call(String,String[],Object...)}
+			@param fn name of the function
+			@param argNames argument names or <code>null</code>
+			@param args arguments
+			@return result or <code>null</code> if an error occurred
+			@throws RPoolException if the worker failed while processing the request */
+		public REXP call(String fn, String[] argNames, Object... args) throws RPoolException {
+			return request(encode(RWire.OP_CALL, fn, null, argNames, args));
+		}
+
+		/** ends the session. The R state created by the session is left in the worker. */
+		public void close() {
+			if (closed) return;
+			closed = true;
+			w.sessions.decrementAndGet();
+		}
+	}
+
+	/** arguments passed to R in each worker */
+	final String[] rArgs;
+	/** workers, a slot is replaced when its worker is restarted */
+	final Worker[] workers;
+	/** timeout (in ms) for a worker to start */
+	long startTimeout = 60000;
+	/** number of workers restarted after a failure */
+	final AtomicInteger restarts = new AtomicInteger();
+	volatile boolean closed;
+	final SecureRandom random = new SecureRandom();
+
+	/** creates a pool with the given number of workers, R is started with <code>--vanilla</code>.
+		@param size number of workers
+		@throws IOException if a worker cannot be started */
+	public RPool(int size) throws IOException {
+		this(size, new String[] { "--vanilla" });
+	}
+
+	/** creates a pool with the given number of workers. All workers are started before the constructor returns.
+		@param size number of workers
+		@param rArgs arguments passed to R in each worker (see {@link Rengine#Rengine(String[],boolean,RMainLoopCallbacks)})
+		@throws IOException if a worker cannot be started */
+	public RPool(int size, String[] rArgs) throws IOException {
+		if (size < 1) throw new IllegalArgumentException("pool size must be positive");
+		this.rArgs = (rArgs == null) ? new String[0] : rArgs;
+		workers = new Worker[size];
+		try {
+			for (int i = 0; i < size; i++)
+				workers[i] = start(i);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/** returns the command used to start a worker. By default it runs the same Java VM with the same class and library path as the current process. Subclasses may override this to customize the worker (e.g. to set the heap size).
+		@param port port the worker has to connect to
+		@param token token the worker has to identify itself with
+		@return command and its arguments */
+	protected List<String> workerCommand(int port, String token) {
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		String lp = System.getProperty("java.library.path");
+		if (lp != null) cmd.add("-Djava.library.path=" + lp);
+		cmd.add(RWorker.class.getName());
+		cmd.add(Integer.toString(port));
+		cmd.add(token);
+		for (int i = 0; i < rArgs.length; i++) cmd.add(rArgs[i]);
+		return cmd;
+	}
+
+	/** launch a worker and wait until its R is ready */
+	Worker start(int slot) throws IOException {
+		ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Process p = null;
+		Socket s = null;
+		try {
+			ss.setSoTimeout((int) startTimeout);
+			String token = Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+			ProcessBuilder pb = new ProcessBuilder(workerCommand(ss.getLocalPort(), token));
+			pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+			pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+			p = pb.start();
+			try {
+				s = ss.accept();
+			} catch (SocketTimeoutException e) {
+				throw new IOException("R worker did not connect within " + startTimeout + "ms");
+			}
+			s.setTcpNoDelay(true);
+			s.setSoTimeout((int) startTimeout);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			if (!token.equals(RWire.readString(in)))
+				throw new IOException("R worker failed to authenticate");
+			if (in.readByte() != RWire.RESP_OK)
+				throw new IOException("R worker failed to start R");
+			s.setSoTimeout(0);
+			Worker w = new Worker(slot, p, s, in, out);
+			p = null; s = null;
+			return w;
+		} finally {
+			ss.close();
+			if (s != null) s.close();
+			if (p != null) p.destroy();
+		}
+	}
+
+	/** handle a failed worker: restart it (unless the pool is closed or it was restarted already) and create the exception to report */
+	RPoolException failed(Worker w, IOException cause) {
+		w.shutdown();
+		synchronized (workers) {
+			if (closed || workers[w.slot] != w) return new RPoolException("R worker failed", cause);
+			workers[w.slot] = null; // other requests go elsewhere while the replacement is starting
+		}
+		try {
+			Worker n = start(w.slot);
+			synchronized (workers) {
+				if (closed) n.shutdown();
+				else workers[w.slot] = n;
+			}
+			restarts.incrementAndGet();
+		} catch (IOException e) {
+			if (Rengine.DEBUG > 0) System.err.println("RPool: unable to restart worker " + w.slot + ": " + e);
+		}
+		return new RPoolException("R worker failed", cause);
+	}
+
+	/** pick the worker for a request: the one with the fewest pending requests (and fewest sessions on a tie)
+		@param forSession if <code>true</code> sessions are counted first */
+	Worker pick(boolean forSession) {
+		if (closed) throw new IllegalStateException("pool is closed");
+		Worker best = null;
+		synchronized (workers) {
+			for (int i = 0; i < workers.length; i++) {
+				Worker w = workers[i];
+				if (w == null || w.dead) continue;
+				if (best == null) { best = w; continue; }
+				int p = w.pending.get() - best.pending.get(), s = w.sessions.get() - best.sessions.get();
+				if (forSession ? (s < 0 || (s == 0 && p < 0)) : (p < 0 || (p == 0 && s < 0)))
+					best = w;
+			}
+		}
+		if (best == null) throw new IllegalStateException("no R worker available");
+		if (!best.process.isAlive()) {
+			failed(best, new IOException("process exited"));
+			return pick(forSession);
+		}
+		return best;
+	}
+
+	/** encode a request so that it can be sent in one go (an unsupported argument fails before anything is sent) */
+	static byte[] encode(int op, String s, Object value, String[] names, Object[] args) {
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bos);
+			out.writeInt(op);
+			RWire.writeString(out, s);
+			if (op == RWire.OP_ASSIGN) RWire.writeValue(out, value);
+			if (op == RWire.OP_CALL) {
+				int n = (args == null) ? 0 : args.length;
+				out.writeInt(n);
+				for (int i = 0; i < n; i++) {
+					RWire.writeString(out, (names != null && i < names.length) ? names[i] : null);
+					RWire.writeValue(out, args[i]);
+				}
+			}
+			out.flush();
+			return bos.toByteArray();
+		} catch (IOException e) { // cannot happen with a byte array
+			throw new IllegalStateException(e);
+		}
+	}
+
+	REXP request(byte[] req) throws RPoolException {
+		Worker w = pick(false);
+		try {
+			return w.request(req);
+		} catch (IOException e) {
+			throw failed(w, e);
+		}
+	}
+
+	/** Parses and evaluates an R expression in one of the workers and returns the converted result.
+		@param s expression (as string) to parse and evaluate
+		@return result or <code>null</code> if an error occurred
+		@throws RPoolException if the worker failed while processing the request */
+	public REXP eval(String s) throws RPoolException {
+		return request(encode(RWire.OP_EVAL, s, null, null, null));
+	}
+
+	/** Assigns a value to a symbol in the global environment of one of the workers. Since subsequent requests may be processed by other workers, this is only useful within a {@link Session} or for assignments that are repeated on all workers (see {@link #assignAll}).
+		@param sym symbol name
+		@param value value - a <code>REXP</code> (with converted content) or any of the types supported by {@link #call(String,Object...)}
+		@return <code>true</code> if successful
+		@throws RPoolException if the worker failed while processing the request */
+	public boolean assign(String sym, Object value) throws RPoolException {
+		return request(encode(RWire.OP_ASSIGN, sym, value, null, null)) != null;
+	}
+
+	/** Assigns a value to a symbol in all workers. This is typically used to distribute data needed by subsequent requests. Note that workers started later (after a failure) won't have the value.
+		@param sym symbol name
+		@param value value, see {@link #assign}
+		@return <code>true</code> if the assignment succeeded in all workers */
+	public boolean assignAll(String sym, Object value) {
+		byte[] req = encode(RWire.OP_ASSIGN, sym, value, null, null);
+		boolean ok = true;
+		Worker[] ws;
+		synchronized (workers) {
+			ws = (Worker[]) workers.clone();
+		}
+		for (int i = 0; i < ws.length; i++) {
+			if (ws[i] == null || ws[i].dead) { ok = false; continue; }
+			try {
+				if (ws[i].request(req) == null) ok = false;
+			} catch (IOException e) {
+				failed(ws[i], e);
+				ok = false;
+			}
+		}
+		return ok;
+	}
+
+	/** Calls an R function in one of the workers.
+		@param fn name of the function
+		@param args arguments. Supported are the same types as in {@link Rengine#call(REXP,boolean,Object,String[],Object...)} except that <code>REXP</code>s must have converted content.
+		@return result or <code>null</code> if an error occurred
+		@throws RPoolException if the worker failed while processing the request */
+	public REXP call(String fn, Object... args) throws RPoolException {
+		return request(encode(RWire.OP_CALL, fn, null, null, args));
+	}
+
+	/** Calls an R function with named arguments in one of the workers.
+		@param fn name of the function
+		@param argNames argument names or <code>null</code>. <code>null</code> elements denote unnamed arguments.
+		@param args arguments, see {@link #call(String,Object...)}
+		@return result or <code>null</code> if an error occurred
+		@throws RPoolException if the worker failed while processing the request */
+	public REXP call(String fn, String[] argNames, Object... args) throws RPoolException {
+		return request(encode(RWire.OP_CALL, fn, null, argNames, args));
+	}
+
+	/** opens a session bound to the worker with the fewest sessions
+		@return new session */
+	public Session openSession() {
+		return new Session(pick(true));
+	}
+
+	/** returns the number of workers
+		@return pool size */
+	public int size() {
+		return workers.length;
+	}
+
+	/** returns the number of worker processes that had to be restarted
+		@return number of restarts */
+	public int getRestarts() {
+		return restarts.get();
+	}
+
+	/** sets the time allowed for a worker to start (including R initialization). It is used when workers are restarted.
+		@param ms timeout in milliseconds */
+	public void setStartTimeout(long ms) {
+		startTimeout = ms;
+	}
+
+	/** shuts down all workers */
+	public void close() {
+		closed = true;
+		synchronized (workers) {
+			for (int i = 0; i < workers.length; i++)
+				if (workers[i] != null) {
+					workers[i].shutdown();
+					workers[i] = null;
+				}
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package org.rosuda.JRI;
+
+/** Exception thrown by {@link RPool} if a request could not be processed because the worker failed: the worker process terminated, the connection to it broke, the response could not be read or the request failed on the Java side of the worker. The worker is restarted in all these cases, so state kept in its R instance is lost. Errors reported by R itself are not exceptions, the request returns <code>null</code> in that case.
+@since JRI 0.5-5
+*/
+public class RPoolException extends Exception {
+	/** creates the exception
+		@param message description of the failure
+		@param cause underlying exception (or <code>null</code>) */
+	public RPoolException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,135 @@
+package org.rosuda.JRI;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** Tracks R objects preserved on behalf of {@link REXP}s (and {@link RBuffer}s) and releases them once the Java objects are no longer reachable. Each preserved object is registered with a phantom reference to its Java counterpart. When the garbage collector finds the counterpart unreachable the reference is enqueued, but nothing is done on the collector's side - the queue is drained later by a thread holding {@link Rengine#getRsync() Rsync} (normally the R thread when it becomes idle and any thread leaving an evaluation). An idle R thread is woken up by a watcher thread (see {@link #watch}) as soon as references are enqueued, and all queued objects are released in one native call (see {@link Rengine#rniReleaseAll}). Objects can also be released deterministically, see {@link REXP#close} and {@link RBuffer#close}.
+@since JRI 0.5-5
+*/
+final class RReleaseQueue {
+	/** phantom reference to a REXP (or the direct buffer of an RBuffer) holding the reference to the preserved R object. Registered references are kept in a doubly-linked list so they stay reachable until they are processed. */
+	static final class Ref extends PhantomReference<Object> {
+		/** reference to the preserved object, 0 once it has been taken */
+		long xp;
+		Ref prev, next;
+
+		Ref(Object x, long xp, ReferenceQueue<Object> q) {
+			super(x, q);
+			this.xp = xp;
+		}
+	}
+
+	/** maximal number of objects released in one native call */
+	static final int BATCH = 256;
+
+	final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	/** references removed from {@link #queue} by the watcher thread, they are released by the next {@link #drain} */
+	final ConcurrentLinkedQueue<Ref> collected = new ConcurrentLinkedQueue<Ref>();
+	/** watcher thread or <code>null</code> if not started */
+	Thread watcher;
+	/** head of the list of registered references */
+	Ref head;
+	/** number of registered references */
+	int count;
+
+	/** register a preserved object
+		@param x Java object representing the object (REXP or direct buffer of an RBuffer)
+		@param xp reference to the preserved object
+		@return registration, used to release the object explicitly */
+	synchronized Ref register(Object x, long xp) {
+		Ref r = new Ref(x, xp, queue);
+		if (head != null) {
+			r.next = head;
+			head.prev = r;
+		}
+		head = r;
+		count++;
+		return r;
+	}
+
+	/** unregister a reference and take the object reference from it
+		@param r registration
+		@return reference to the preserved object which must be released by the caller or 0 if it was taken already */
+	synchronized long take(Ref r) {
+		long xp = r.xp;
+		if (xp == 0) return 0;
+		r.xp = 0;
+		if (r.prev != null) r.prev.next = r.next; else head = r.next;
+		if (r.next != null) r.next.prev = r.prev;
+		r.prev = r.next = null;
+		count--;
+		return xp;
+	}
+
+	/** returns the number of preserved objects which were not released yet (including those that are waiting in the queue)
+		@return number of objects */
+	synchronized int getCount() {
+		return count;
+	}
+
+	/** start a daemon thread which waits for references to be enqueued and wakes up the R thread, so objects are released even if the R thread waits for events without a timeout
+		@param d dispatcher of the R thread */
+	synchronized void watch(final RDispatcher d) {
+		if (watcher != null) return;
+		watcher = new Thread("R release queue") {
+				public void run() {
+					try {
+						while (true) {
+							Ref r = (Ref) queue.remove();
+							boolean wake = collected.isEmpty(); // one wake-up per batch is enough
+							collected.add(r);
+							if (wake) d.wakeup();
+						}
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/** stop the watcher thread (if running) */
+	synchronized void unwatch() {
+		if (watcher != null) {
+			watcher.interrupt();
+			watcher = null;
+		}
+	}
+
+	/** @return <code>true</code> if there are objects waiting to be released */
+	boolean hasCollected() {
+		return !collected.isEmpty();
+	}
+
+	/** take the next reference whose Java counterpart has been collected
+		@return reference or <code>null</code> if there is none */
+	Ref poll() {
+		Ref r = collected.poll();
+		return (r != null) ? r : (Ref) queue.poll();
+	}
+
+	/** release all objects whose Java counterparts have been collected. Must be called with <code>Rsync</code> held.
+		@param eng engine owning the objects
+		@param first reference already obtained by {@link #poll} or <code>null</code> */
+	void drain(Rengine eng, Ref first) {
+		Ref r = (first != null) ? first : poll();
+		if (r == null) return;
+		long[] batch = new long[BATCH];
+		int n = 0;
+		while (r != null) {
+			long xp = take(r);
+			if (xp != 0) {
+				batch[n++] = xp;
+				if (n == BATCH) {
+					eng.rniReleaseAll(batch, n);
+					n = 0;
+				}
+			}
+			r = poll();
+		}
+		if (n > 0) {
+			eng.rniReleaseAll(batch, n);
+		}
+	}
+}
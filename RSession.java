@@ -0,0 +1,109 @@
+package org.rosuda.JRI;
+
+import java.nio.ByteBuffer;
+
+/** RSession provides unsynchronized access to the R Native Interface for a sequence of operations that are performed as one atomic unit. Sessions are obtained exclusively via {@link Rengine#withR}, which acquires both {@link Rengine#getRsync() Rsync} and the engine monitor once for the whole block - in contrast to the <code>rni</code> methods of {@link Rengine} which enter the engine monitor on every call. The <code>rni</code> methods of this class are identical to their counterparts in {@link Rengine} (see there for documentation), except that they are not <code>synchronized</code>.<p><u>Important:</u> a session is only valid inside the block it was passed to and only on the thread running that block. Using it anywhere else bypasses all synchronization and is very likely to crash R.
+@since JRI 0.5-5
+*/
+public final class RSession {
+	static {
+		if (Rengine.jriLoaded) Rengine.rniRegisterSession(RSession.class);
+	}
+
+	/** engine this session belongs to */
+	final Rengine eng;
+
+	RSession(Rengine eng) {
+		this.eng = eng;
+	}
+
+	/** returns the engine this session belongs to
+		@return engine */
+	public Rengine getEngine() {
+		return eng;
+	}
+
+	/** Parses and evaluates an R expression within the session and returns the result. It is equivalent to {@link Rengine#eval(String,boolean)} except that no locking is performed.
+		@param s expression (as string) to parse and evaluate
+		@param convert if set to <code>true</code> the resulting REXP will contain native representation of the contents, otherwise an empty REXP will be returned
+		@return resulting expression or <code>null</code> if something went wrong */
+	public REXP eval(String s, boolean convert) {
+		long pr = rniParse(s, 1);
+		if (pr == 0) return null;
+		long er = rniEval(pr, 0);
+		return (er == 0) ? null : eng.createREXP(er, convert);
+	}
+
+	public native long rniParse(String s, int parts);
+	public native long rniEval(long exp, long rho);
+	public native long rniCall(String fname, long fun, Object[] args, String[] names, long rho);
+	public native void rniProtect(long exp);
+	public native void rniUnprotect(int count);
+
+	public native String rniGetString(long exp);
+	public native String[] rniGetStringArray(long exp);
+	public native RStringVector rniGetStringBlob(long exp);
+	public native long rniPutStringBlob(byte[] blob, int[] offsets, int[] index);
+	public native int[] rniGetIntArray(long exp);
+	public native int[] rniGetBoolArrayI(long exp);
+	public native double[] rniGetDoubleArray(long exp);
+	public native byte[] rniGetRawArray(long exp);
+	public native long[] rniGetVector(long exp);
+	public native ByteBuffer rniGetDataBuffer(long exp);
+	public native long rniGetLength(long exp);
+	public native int rniGetDoubleRegion(long exp, long offset, int len, double[] dst, int dstOff);
+	public native int rniGetIntRegion(long exp, long offset, int len, int[] dst, int dstOff);
+	public native int rniGetBoolRegionI(long exp, long offset, int len, int[] dst, int dstOff);
+	public native int rniGetRawRegion(long exp, long offset, int len, byte[] dst, int dstOff);
+	public native long rniAllocVector(int type, long len);
+	public native int rniSetDoubleRegion(long exp, long offset, double[] src, int srcOff, int len);
+	public native int rniSetIntRegion(long exp, long offset, int[] src, int srcOff, int len);
+	public native int rniSetBoolRegionI(long exp, long offset, int[] src, int srcOff, int len);
+	public native int rniSetRawRegion(long exp, long offset, byte[] src, int srcOff, int len);
+	public native int rniSetBufferRegion(long exp, long offset, ByteBuffer src, int srcOff, int len);
+	public native int[] rniGetDim(long exp);
+	public native double[] rniGetDoubleMatrix(long exp, int[] dim);
+	public native double[] rniGetComplexArray(long exp);
+	public native long rniPutComplexArray(double[] a);
+
+	public native long rniPutString(String s);
+	public native long rniPutStringArray(String[] a);
+	public native long rniPutIntArray(int [] a);
+	public native long rniPutBoolArrayI(int [] a);
+	public native long rniPutBoolArray(boolean [] a);
+	public native long rniPutDoubleArray(double[] a);
+	public native long rniPutRawArray(byte[] a);
+	public native long rniPutVector(long[] exps);
+
+	public native long rniGetAttr(long exp, String name);
+	public native void rniSetAttr(long exp, String name, long attr);
+	public native boolean rniInherits(long exp, String cName);
+
+	public native long rniCons(long head, long tail, long tag, boolean lang);
+	public long rniCons(long head, long tail) { return rniCons(head, tail, 0, false); }
+	public long rniLCons(long head, long tail) { return rniCons(head, tail, 0, true); }
+	public native long rniCAR(long exp);
+	public native void rniSetCAR(long exp, long val);
+	public native long rniCDR(long exp);
+	public native long rniTAG(long exp);
+	public native long rniPutList(long[] cont);
+	public native long[] rniGetList(long exp);
+
+	public native String rniGetSymbolName(long sym);
+	public native long rniInstallSymbol(String sym);
+
+	public native void rniPreserve(long exp);
+	public native void rniRelease(long exp);
+	public native void rniReleaseAll(long[] exp, int count);
+
+	public native long rniFindVar(String sym, long rho);
+	public native long rniSpecialObject(int which);
+	public native long rniJavaToXref(Object o);
+	public native Object rniXrefToJava(long exp);
+
+	public native boolean rniAssign(String name, long exp, long rho);
+	public native int rniExpType(long exp);
+	public native Object[] rniDescribe(long exp, int[] info);
+	public native RDataFrame rniGetDataFrame(long exp);
+	public native long rniPutDataFrame(int nrow, String[] names, int[] types, Object[] data, Object[] extra, String[] rowNames);
+}
@@ -0,0 +1,125 @@
+package org.rosuda.JRI;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/** Character vector in a compact form: the distinct strings are stored UTF-8 encoded in one byte array and each element refers to one of them. This is how character vectors are transferred from and to R (see {@link REXP#asStringVector} and {@link Rengine#assign(String,RStringVector)}) - the whole vector is moved in a few array copies instead of creating a Java string per element. Strings are decoded on first access and each distinct string is decoded only once, so repeated values (such as country codes or category labels) share the same <code>String</code> instance.<p>Missing values (<code>NA</code>) are represented as <code>null</code>.
+@since JRI 0.5-5
+*/
+public class RStringVector {
+	/** UTF-8 encoded distinct strings */
+	final byte[] blob;
+	/** offsets of the distinct strings in the blob (one more than there are distinct strings, the last entry is the length of the blob) */
+	final int[] offsets;
+	/** index of the distinct string for each element or -1 for NA */
+	final int[] index;
+	/** decoded distinct strings, filled on demand */
+	final String[] cache;
+
+	/** creates a vector from its encoded form (used by the native code)
+		@param blob UTF-8 encoded distinct strings
+		@param offsets offsets of the distinct strings in the blob
+		@param index index of the distinct string for each element or -1 for NA */
+	RStringVector(byte[] blob, int[] offsets, int[] index) {
+		this.blob = blob;
+		this.offsets = offsets;
+		this.index = index;
+		cache = new String[offsets.length - 1];
+	}
+
+	/** creates a vector from strings (or other character sequences such as <code>StringBuilder</code>s). Equal strings are stored only once.
+		@param s strings (<code>null</code> entries are NA) */
+	public RStringVector(CharSequence[] s) {
+		HashMap<String, Integer> u = new HashMap<String, Integer>();
+		String[] dist = new String[s.length];
+		byte[][] enc = new byte[s.length][];
+		int nu = 0, total = 0;
+		index = new int[s.length];
+		for (int i = 0; i < s.length; i++) {
+			if (s[i] == null) {
+				index[i] = -1;
+				continue;
+			}
+			String str = s[i].toString();
+			Integer k = u.get(str);
+			if (k == null) {
+				k = new Integer(nu);
+				u.put(str, k);
+				dist[nu] = str;
+				enc[nu] = str.getBytes(StandardCharsets.UTF_8);
+				total += enc[nu].length;
+				nu++;
+			}
+			index[i] = k.intValue();
+		}
+		blob = new byte[total];
+		offsets = new int[nu + 1];
+		cache = new String[nu];
+		for (int j = 0, o = 0; j < nu; j++) {
+			offsets[j] = o;
+			System.arraycopy(enc[j], 0, blob, o, enc[j].length);
+			o += enc[j].length;
+			cache[j] = dist[j];
+		}
+		offsets[nu] = total;
+	}
+
+	/** returns the number of elements
+		@return length */
+	public int length() {
+		return index.length;
+	}
+
+	/** returns the number of distinct strings (not counting NA)
+		@return number of distinct strings */
+	public int getUniqueCount() {
+		return cache.length;
+	}
+
+	/** returns the index of the distinct string of an element. Elements with equal strings have the same index, so it can be used for grouping or tabulation without comparing strings.
+		@param i element
+		@return index (between 0 and <code>getUniqueCount() - 1</code>) or -1 for NA */
+	public int getUniqueIndex(int i) {
+		return index[i];
+	}
+
+	/** checks whether an element is NA
+		@param i element
+		@return <code>true</code> if the element is NA */
+	public boolean isNA(int i) {
+		return index[i] < 0;
+	}
+
+	/** returns a distinct string
+		@param k index of the distinct string
+		@return string */
+	public String getUnique(int k) {
+		String s = cache[k];
+		if (s == null)
+			cache[k] = s = new String(blob, offsets[k], offsets[k + 1] - offsets[k], StandardCharsets.UTF_8);
+		return s;
+	}
+
+	/** returns an element
+		@param i element
+		@return string or <code>null</code> for NA */
+	public String get(int i) {
+		int k = index[i];
+		return (k < 0) ? null : getUnique(k);
+	}
+
+	/** returns all elements
+		@return new array of strings (equal strings are the same instance) */
+	public String[] toArray() {
+		String[] s = new String[index.length];
+		for (int i = 0; i < s.length; i++) {
+			int k = index[i];
+			if (k >= 0) s[i] = getUnique(k);
+		}
+		return s;
+	}
+
+	public String toString() {
+		return "RStringVector[" + index.length + ", " + cache.length + " unique]";
+	}
+}
@@ -0,0 +1,122 @@
+package org.rosuda.JRI;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/** Evaluation with a deadline. The evaluation is interrupted using {@link Rengine#rniStop} (cooperatively, i.e. R stops at the next point where it checks for user interrupts) when the deadline expires or the future of the evaluation is cancelled. Optionally R's own elapsed time limit (see <code>setTimeLimit</code> in R) is set for the duration of the evaluation as well, which also catches code that doesn't return to the interpreter loop often enough.
+@since JRI 0.5-5
+*/
+final class RTimedTask implements Function<Rengine, REXP> {
+	// states
+	static final int QUEUED = 0;
+	static final int RUNNING = 1;
+	static final int DONE = 2;
+
+	/** timer thread shared by all engines, created on first use */
+	static ScheduledThreadPoolExecutor watchdog;
+
+	static synchronized ScheduledThreadPoolExecutor watchdog() {
+		if (watchdog == null) {
+			watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "JRI watchdog");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			watchdog.setRemoveOnCancelPolicy(true);
+		}
+		return watchdog;
+	}
+
+	final Rengine eng;
+	final String expr;
+	final boolean convert;
+	/** R-side elapsed time limit in seconds or 0 if not used */
+	final double rLimit;
+
+	int state = QUEUED;
+	/** set if R was asked to stop while running this task */
+	boolean stopped;
+	volatile boolean timedOut;
+	volatile CompletableFuture<REXP> future;
+
+	RTimedTask(Rengine eng, String expr, boolean convert, double rLimit) {
+		this.eng = eng;
+		this.expr = expr;
+		this.convert = convert;
+		this.rLimit = rLimit;
+	}
+
+	public REXP apply(Rengine re) {
+		synchronized (this) {
+			if (state != QUEUED) throw new CompletionException(new TimeoutException("R evaluation timed out before it started"));
+			state = RUNNING;
+		}
+		try {
+			if (rLimit > 0)
+				re.call((REXP) null, false, "setTimeLimit", new String[] { "elapsed" }, new Double(rLimit));
+			REXP r = re.eval(expr, convert);
+			if (timedOut) throw new CompletionException(new TimeoutException("R evaluation timed out"));
+			return r;
+		} finally {
+			boolean clear;
+			synchronized (this) {
+				state = DONE;
+				clear = stopped;
+			}
+			// R may not have noticed the interrupt before the evaluation ended - make sure it doesn't hit anything else
+			if (clear) re.rniStop(3);
+			if (rLimit > 0)
+				re.call((REXP) null, false, "setTimeLimit", null);
+		}
+	}
+
+	/** interrupt the evaluation if it is running or make sure it doesn't run if it's still queued */
+	void stop() {
+		synchronized (this) {
+			if (state == QUEUED)
+				state = DONE;
+			else if (state == RUNNING && !stopped) {
+				stopped = true;
+				eng.rniStop(0);
+			}
+		}
+	}
+
+	/** called by the watchdog when the deadline expires */
+	void expire() {
+		timedOut = true;
+		stop();
+		CompletableFuture<REXP> f = future;
+		if (f != null) f.completeExceptionally(new TimeoutException("R evaluation timed out"));
+	}
+
+	/** schedule the task on the R thread and arm the deadline
+		@param timeout timeout
+		@param unit unit of the timeout
+		@return future of the evaluation */
+	CompletableFuture<REXP> start(long timeout, TimeUnit unit) {
+		final ScheduledFuture<?> timer = watchdog().schedule(new Runnable() {
+				public void run() { expire(); }
+			}, timeout, unit);
+		CompletableFuture<REXP> f = eng.submit(this);
+		future = f;
+		if (timedOut) // the deadline expired before we published the future
+			f.completeExceptionally(new TimeoutException("R evaluation timed out"));
+		f.whenComplete(new BiConsumer<REXP, Throwable>() {
+				public void accept(REXP r, Throwable t) {
+					timer.cancel(false);
+					if (t != null) stop(); // timeout or cancellation
+				}
+			});
+		return f;
+	}
+}
@@ -1,30 +1,76 @@
 package org.rosuda.JRI;
 
+import java.util.HashMap;
 import java.util.Vector;
-import java.util.Enumeration;
 
 /** class encapsulating named generic vectors in R - do NOT use add/remove directly as names are not synchronized with the contents. The reason for this implementation is for historical compatibility and it may change in the future.
 <p>
-It is now used in <code>REXP</code> where <code>Vector</code> type was used previously for contents storage.
+It is now used in <code>REXP</code> where <code>Vector</code> type was used previously for contents storage.<p>
+The <code>at</code> and <code>nameAt</code> methods access the contents directly (without synchronization) and name lookups use a hash index which is built on first use, so they are the preferred way to access the contents. Like <code>REXP</code> objects, vectors are not expected to be modified once they are constructed.
 @since JRI 0.3
 */
 public class RVector extends java.util.Vector {
-	Vector names = null;
+	/** names or <code>null</code> if there are none */
+	String[] names = null;
+	/** names as a <code>Vector</code> (as returned by {@link #getNames}), created on demand */
+	Vector nameVector = null;
+	/** name to index map, created on first lookup */
+	volatile HashMap<String, Integer> index = null;
+
 	public RVector() { super(); }
-	
+
 	/** replace the names vector - do NOT use directly!
 		@param nam list of names */
 	public void setNames(String[] nam) {
-		names=new Vector(nam.length);
-		int i=0;
-		while (i<nam.length)
-			names.addElement(nam[i++]);
+		names = (String[]) nam.clone();
+		nameVector = null;
+		index = null;
 	}
-	
+
 	/** return the vector containg all names
 		@return vector containing all names */
 	public Vector getNames() {
-		return names;
+		if (names == null) return null;
+		if (nameVector == null) {
+			Vector v = new Vector(names.length);
+			for (int i = 0; i < names.length; i++)
+				v.addElement(names[i]);
+			nameVector = v;
+		}
+		return nameVector;
+	}
+
+	/** return all names
+		@return new array of names or <code>null</code> if there are no names
+		@since JRI 0.5-5 */
+	public String[] getNameArray() {
+		return (names == null) ? null : (String[]) names.clone();
+	}
+
+	/** return the name of an element
+		@param i index
+		@return name or <code>null</code> if there are no names or <code>i</code> is out of range
+		@since JRI 0.5-5 */
+	public String nameAt(int i) {
+		return (names == null || i < 0 || i >= names.length) ? null : names[i];
+	}
+
+	/** return the index of the (first) element with the given name
+		@param name name
+		@return index or -1 if not found
+		@since JRI 0.5-5 */
+	public int indexOfName(String name) {
+		if (names == null || name == null) return -1;
+		HashMap<String, Integer> m = index;
+		if (m == null) {
+			m = new HashMap<String, Integer>(names.length * 2 + 1);
+			// walk backwards so that the first of duplicate names wins
+			for (int i = names.length - 1; i >= 0; i--)
+				if (names[i] != null) m.put(names[i], new Integer(i));
+			index = m;
+		}
+		Integer i = m.get(name);
+		return (i == null) ? -1 : i.intValue();
 	}
 
 	/** return contents by name or <code>null</code> if not found
@@ -32,17 +78,16 @@ public class RVector extends java.util.Vector {
 		@return contents or <code>null</code> if not found
 		*/
 	public REXP at(String name) {
-		if (names==null) return null;
-		int i=0;
-		for (Enumeration e = names.elements() ; e.hasMoreElements() ;) {
-			String n = (String)e.nextElement();
-			if (n.equals(name)) return (REXP) elementAt(i);
-			i++;
-		}
-		return null;
+		int i = indexOfName(name);
+		return (i < 0) ? null : at(i);
 	}
-	
+
+	/** return contents by index
+		@param i index
+		@return contents */
 	public REXP at(int i) {
-		return (REXP)elementAt(i);
+		// direct access to the storage of Vector to avoid the monitor
+		if (i >= elementCount) throw new ArrayIndexOutOfBoundsException(i + " >= " + elementCount);
+		return (REXP) elementData[i];
 	}
 }
@@ -0,0 +1,294 @@
+package org.rosuda.JRI;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/** Binary protocol spoken between {@link RPool} and its {@link RWorker} processes. Each request consists of an opcode followed by its arguments, each response of a status byte optionally followed by a value. Values are either plain Java objects (as supported by {@link Rengine#call(String,Object...)}) or converted {@link REXP}s. Only converted content travels over the wire, references to R objects (<code>XT_NONE</code>) cannot be transferred.
+@since JRI 0.5-5
+*/
+final class RWire {
+	// requests
+	/** evaluate a string: <code>string expr</code> */
+	static final int OP_EVAL = 1;
+	/** assign a value: <code>string sym, value</code> */
+	static final int OP_ASSIGN = 2;
+	/** call a function: <code>string fn, int n, n * (string name, value)</code> */
+	static final int OP_CALL = 3;
+	/** shut down the worker, no arguments */
+	static final int OP_QUIT = 4;
+
+	// response status
+	/** success, followed by the result (a value) */
+	static final int RESP_OK = 0;
+	/** R reported an error, no result */
+	static final int RESP_RERROR = 1;
+	/** the request failed on the Java side, followed by <code>string message</code> */
+	static final int RESP_FAILED = 2;
+
+	// value tags
+	static final int V_NULL = 0;
+	static final int V_INT = 1;
+	static final int V_DOUBLE = 2;
+	static final int V_STRING = 3;
+	static final int V_BOOLEAN = 4;
+	static final int V_INTS = 5;
+	static final int V_DOUBLES = 6;
+	static final int V_STRINGS = 7;
+	static final int V_BOOLEANS = 8;
+	static final int V_RAW = 9;
+	static final int V_REXP = 10;
+
+	private RWire() {}
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0) return null;
+		byte[] b = new byte[n];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	static void writeStrings(DataOutputStream out, String[] a) throws IOException {
+		if (a == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(a.length);
+		for (int i = 0; i < a.length; i++) writeString(out, a[i]);
+	}
+
+	static String[] readStrings(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0) return null;
+		String[] a = new String[n];
+		for (int i = 0; i < n; i++) a[i] = readString(in);
+		return a;
+	}
+
+	static void writeInts(DataOutputStream out, int[] a) throws IOException {
+		out.writeInt(a.length);
+		for (int i = 0; i < a.length; i++) out.writeInt(a[i]);
+	}
+
+	static int[] readInts(DataInputStream in) throws IOException {
+		int[] a = new int[in.readInt()];
+		for (int i = 0; i < a.length; i++) a[i] = in.readInt();
+		return a;
+	}
+
+	static void writeDoubles(DataOutputStream out, double[] a) throws IOException {
+		out.writeInt(a.length);
+		for (int i = 0; i < a.length; i++) out.writeDouble(a[i]);
+	}
+
+	static double[] readDoubles(DataInputStream in) throws IOException {
+		double[] a = new double[in.readInt()];
+		for (int i = 0; i < a.length; i++) a[i] = in.readDouble();
+		return a;
+	}
+
+	/** write a Java object (see {@link Rengine#rniCall} for supported types)
+		@throws IllegalArgumentException if the type is not supported */
+	static void writeValue(DataOutputStream out, Object o) throws IOException {
+		if (o == null) out.writeByte(V_NULL);
+		else if (o instanceof Integer) { out.writeByte(V_INT); out.writeInt(((Integer) o).intValue()); }
+		else if (o instanceof Double) { out.writeByte(V_DOUBLE); out.writeDouble(((Double) o).doubleValue()); }
+		else if (o instanceof String) { out.writeByte(V_STRING); writeString(out, (String) o); }
+		else if (o instanceof Boolean) { out.writeByte(V_BOOLEAN); out.writeBoolean(((Boolean) o).booleanValue()); }
+		else if (o instanceof int[]) { out.writeByte(V_INTS); writeInts(out, (int[]) o); }
+		else if (o instanceof double[]) { out.writeByte(V_DOUBLES); writeDoubles(out, (double[]) o); }
+		else if (o instanceof String[]) { out.writeByte(V_STRINGS); writeStrings(out, (String[]) o); }
+		else if (o instanceof boolean[]) {
+			boolean[] a = (boolean[]) o;
+			out.writeByte(V_BOOLEANS);
+			out.writeInt(a.length);
+			for (int i = 0; i < a.length; i++) out.writeBoolean(a[i]);
+		} else if (o instanceof byte[]) {
+			byte[] a = (byte[]) o;
+			out.writeByte(V_RAW);
+			out.writeInt(a.length);
+			out.write(a);
+		} else if (o instanceof REXP) {
+			out.writeByte(V_REXP);
+			writeREXP(out, (REXP) o);
+		} else
+			throw new IllegalArgumentException("unsupported type " + o.getClass().getName());
+	}
+
+	static Object readValue(DataInputStream in) throws IOException {
+		int t = in.readByte();
+		switch (t) {
+		case V_NULL: return null;
+		case V_INT: return new Integer(in.readInt());
+		case V_DOUBLE: return new Double(in.readDouble());
+		case V_STRING: return readString(in);
+		case V_BOOLEAN: return Boolean.valueOf(in.readBoolean());
+		case V_INTS: return readInts(in);
+		case V_DOUBLES: return readDoubles(in);
+		case V_STRINGS: return readStrings(in);
+		case V_BOOLEANS: {
+			boolean[] a = new boolean[in.readInt()];
+			for (int i = 0; i < a.length; i++) a[i] = in.readBoolean();
+			return a;
+		}
+		case V_RAW: {
+			byte[] a = new byte[in.readInt()];
+			in.readFully(a);
+			return a;
+		}
+		case V_REXP: return readREXP(in);
+		}
+		throw new IOException("invalid value tag " + t);
+	}
+
+	/** write the converted content of a REXP followed by its dimensions. Content that cannot be transferred (references, pairlists, closures etc.) is written as <code>XT_UNKNOWN</code>. Other attributes are not transferred except for names of generic vectors and levels of factors. */
+	static void writeREXP(DataOutputStream out, REXP x) throws IOException {
+		writeContent(out, x);
+		int[] d = (x == null) ? null : x.dim;
+		if (d == null)
+			out.writeInt(-1);
+		else
+			writeInts(out, d);
+	}
+
+	static void writeContent(DataOutputStream out, REXP x) throws IOException {
+		if (x == null) {
+			out.writeInt(REXP.XT_NULL);
+			return;
+		}
+		Object c = x.getContent();
+		switch (x.getType()) {
+		case REXP.XT_NULL:
+			out.writeInt(REXP.XT_NULL);
+			return;
+		case REXP.XT_INT:
+			out.writeInt(REXP.XT_INT);
+			out.writeInt(((Integer) c).intValue());
+			return;
+		case REXP.XT_DOUBLE:
+			out.writeInt(REXP.XT_DOUBLE);
+			out.writeDouble(((Double) c).doubleValue());
+			return;
+		case REXP.XT_STR:
+		case REXP.XT_SYM:
+			out.writeInt(x.getType());
+			writeString(out, (String) c);
+			return;
+		case REXP.XT_BOOL:
+			out.writeInt(REXP.XT_BOOL);
+			out.writeInt(((RBool) c).val);
+			return;
+		case REXP.XT_ARRAY_INT:
+		case REXP.XT_ARRAY_BOOL_INT:
+			out.writeInt(x.getType());
+			writeInts(out, (int[]) c);
+			return;
+		case REXP.XT_ARRAY_DOUBLE:
+			out.writeInt(REXP.XT_ARRAY_DOUBLE);
+			writeDoubles(out, (double[]) c);
+			return;
+		case REXP.XT_ARRAY_STR:
+			out.writeInt(REXP.XT_ARRAY_STR);
+			writeStrings(out, (String[]) c);
+			return;
+		case REXP.XT_COMPLEX: {
+			RComplexNumber z = (RComplexNumber) c;
+			out.writeInt(REXP.XT_COMPLEX);
+			out.writeDouble(z.getMultiplier());
+			out.writeDouble(z.getReminder());
+			return;
+		}
+		case REXP.XT_ARRAY_COMPLEX: {
+			RComplexNumber[] z = (RComplexNumber[]) c;
+			out.writeInt(REXP.XT_ARRAY_COMPLEX);
+			out.writeInt(z.length);
+			for (int i = 0; i < z.length; i++) {
+				out.writeDouble(z[i].getMultiplier());
+				out.writeDouble(z[i].getReminder());
+			}
+			return;
+		}
+		case REXP.XT_FACTOR: {
+			RFactor f = (RFactor) c;
+			out.writeInt(REXP.XT_FACTOR);
+			writeInts(out, f.getCodes());
+			writeStrings(out, f.getLevels());
+			return;
+		}
+		case REXP.XT_VECTOR: {
+			RVector v = (RVector) c;
+			out.writeInt(REXP.XT_VECTOR);
+			out.writeInt(v.size());
+			for (int i = 0; i < v.size(); i++) writeREXP(out, v.at(i));
+			writeStrings(out, v.getNameArray());
+			return;
+		}
+		}
+		out.writeInt(REXP.XT_UNKNOWN);
+	}
+
+	static REXP readREXP(DataInputStream in) throws IOException {
+		REXP x = readContent(in);
+		int n = in.readInt();
+		if (n >= 0) {
+			int[] d = new int[n];
+			for (int i = 0; i < n; i++) d[i] = in.readInt();
+			x.dim = d;
+		}
+		return x;
+	}
+
+	static REXP readContent(DataInputStream in) throws IOException {
+		int xt = in.readInt();
+		switch (xt) {
+		case REXP.XT_NULL: return new REXP();
+		case REXP.XT_INT: return new REXP(xt, new Integer(in.readInt()));
+		case REXP.XT_DOUBLE: return new REXP(xt, new Double(in.readDouble()));
+		case REXP.XT_STR:
+		case REXP.XT_SYM: return new REXP(xt, readString(in));
+		case REXP.XT_BOOL: return new REXP(xt, new RBool(in.readInt()));
+		case REXP.XT_ARRAY_INT:
+		case REXP.XT_ARRAY_BOOL_INT: return new REXP(xt, readInts(in));
+		case REXP.XT_ARRAY_DOUBLE: return new REXP(xt, readDoubles(in));
+		case REXP.XT_ARRAY_STR: return new REXP(xt, readStrings(in));
+		case REXP.XT_COMPLEX: {
+			double m = in.readDouble();
+			return new REXP(xt, new RComplexNumber(m, in.readDouble()));
+		}
+		case REXP.XT_ARRAY_COMPLEX: {
+			RComplexNumber[] z = new RComplexNumber[in.readInt()];
+			for (int i = 0; i < z.length; i++) {
+				double m = in.readDouble();
+				z[i] = new RComplexNumber(m, in.readDouble());
+			}
+			return new REXP(xt, z);
+		}
+		case REXP.XT_FACTOR: {
+			int[] ids = readInts(in);
+			return new REXP(xt, new RFactor(ids, readStrings(in), 0));
+		}
+		case REXP.XT_VECTOR: {
+			RVector v = new RVector();
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) v.addElement(readREXP(in));
+			String[] nam = readStrings(in);
+			if (nam != null) v.setNames(nam);
+			return new REXP(xt, v);
+		}
+		case REXP.XT_UNKNOWN: return new REXP(xt, null);
+		}
+		throw new IOException("invalid REXP type " + xt);
+	}
+}
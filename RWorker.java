@@ -0,0 +1,147 @@
+package org.rosuda.JRI;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/** Worker process of an {@link RPool}. It hosts one {@link Rengine} and serves requests sent by the pool over a local socket. It is not meant to be used directly - {@link RPool} starts workers as<pre>
+java org.rosuda.JRI.RWorker &lt;port&gt; &lt;token&gt; [R arguments ...]</pre>
+The worker connects to the given port on the loopback interface, identifies itself by the token and then processes requests until the connection is closed or it is asked to quit. R console output is sent to the standard error stream of the worker.
+@since JRI 0.5-5
+*/
+public final class RWorker implements RMainLoopCallbacks {
+	final Rengine eng;
+	final DataInputStream in;
+	final DataOutputStream out;
+
+	RWorker(Rengine eng, DataInputStream in, DataOutputStream out) {
+		this.eng = eng;
+		this.in = in;
+		this.out = out;
+	}
+
+	/** serve requests until the connection is closed or the worker is asked to quit */
+	void serve() throws IOException {
+		while (true) {
+			int op;
+			try {
+				op = in.readInt();
+			} catch (EOFException e) {
+				return;
+			}
+			if (op == RWire.OP_QUIT) return;
+			try {
+				REXP r;
+				boolean ok = true;
+				switch (op) {
+				case RWire.OP_EVAL:
+					r = eng.eval(RWire.readString(in));
+					ok = (r != null);
+					break;
+				case RWire.OP_ASSIGN: {
+					String sym = RWire.readString(in);
+					Object v = RWire.readValue(in);
+					// plain Java objects are assigned by calling assign() in R (at top level it assigns into the global environment)
+					ok = (v instanceof REXP) ? eng.assign(sym, (REXP) v) : (eng.call((REXP) null, false, "assign", null, sym, v) != null);
+					r = null;
+					break;
+				}
+				case RWire.OP_CALL: {
+					String fn = RWire.readString(in);
+					int n = in.readInt();
+					String[] names = new String[n];
+					Object[] args = new Object[n];
+					for (int i = 0; i < n; i++) {
+						names[i] = RWire.readString(in);
+						args[i] = RWire.readValue(in);
+					}
+					r = eng.call(null, true, fn, names, args);
+					ok = (r != null);
+					break;
+				}
+				default:
+					throw new IOException("invalid request " + op);
+				}
+				if (ok) {
+					out.writeByte(RWire.RESP_OK);
+					RWire.writeREXP(out, r);
+				} else
+					out.writeByte(RWire.RESP_RERROR);
+			} catch (RuntimeException e) {
+				out.writeByte(RWire.RESP_FAILED);
+				RWire.writeString(out, e.toString());
+			}
+			out.flush();
+		}
+	}
+
+	public void rWriteConsole(Rengine re, String text, int oType) {
+		System.err.print(text);
+	}
+
+	public void rBusy(Rengine re, int which) {}
+
+	public String rReadConsole(Rengine re, String prompt, int addToHistory) {
+		return null;
+	}
+
+	public void rShowMessage(Rengine re, String message) {
+		System.err.println(message);
+	}
+
+	public String rChooseFile(Rengine re, int newFile) {
+		return null;
+	}
+
+	public void rFlushConsole(Rengine re) {
+		System.err.flush();
+	}
+
+	public void rSaveHistory(Rengine re, String filename) {}
+
+	public void rLoadHistory(Rengine re, String filename) {}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: java org.rosuda.JRI.RWorker <port> <token> [R arguments ...]");
+			System.exit(2);
+		}
+		String[] rArgs = new String[args.length - 2];
+		System.arraycopy(args, 2, rArgs, 0, rArgs.length);
+		int status = 0;
+		try {
+			Socket s = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]));
+			s.setTcpNoDelay(true);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			RWire.writeString(out, args[1]);
+			out.flush();
+			if (!Rengine.versionCheck()) {
+				System.err.println("RWorker: JRI version mismatch");
+				System.exit(1);
+			}
+			Rengine eng = new Rengine(rArgs, false, null);
+			if (!eng.waitForR()) {
+				System.err.println("RWorker: cannot load R");
+				System.exit(1);
+			}
+			RWorker w = new RWorker(eng, in, out);
+			eng.addMainLoopCallbacks(w);
+			// tell the pool that R is ready
+			out.writeByte(RWire.RESP_OK);
+			out.flush();
+			w.serve();
+			s.close();
+			eng.end();
+		} catch (Exception e) {
+			System.err.println("RWorker: " + e);
+			status = 1;
+		}
+		System.exit(status);
+	}
+}
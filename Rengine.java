@@ -1,6 +1,13 @@
 package org.rosuda.JRI;
 
 import java.lang.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 /** Rengine class is the interface between an instance of R and the Java VM. Due to the fact that R has no threading support, you can run only one instance of R withing a multi-threaded application. There are two ways to use R from Java: individual call and full event loop. See the Rengine {@link #Rengine constructor} for details. <p> <u>Important note:</u> All methods starting with <code>rni</code> (R Native Interface) are low-level native methods that should be avoided if a high-level methods exists. They do NOT attempt any synchronization, so it is the duty of the calling program to ensure that the invocation is safe (see {@link #getRsync()} for details). At some point in the future when the high-level API is complete they should become private. However, currently this high-level layer is not complete, so they are available for now.<p>All <code>rni</code> methods use <code>long</code> type to reference <code>SEXP</code>s on R side. Those reference should never be modified or used in arithmetics - the only reason for not using an extra interface class to wrap those references is that <code>rni</code> methods are all <i>native</i> methods and therefore it would be too expensive to handle the unwrapping on the C side.<p><code>jri</code> methods are called internally by R and invoke the corresponding method from the even loop handler. Those methods should usualy not be called directly.
 
@@ -13,6 +20,8 @@ public class Rengine extends Thread {
 	public static boolean jriLoaded;
 
     boolean loopHasLock = false;
+    /** <code>true</code> while the R event loop waits for console input and has released Rsync, i.e. {@link #rniIdle} may run queued tasks. Only used on the R thread. */
+    boolean consoleWait = false;
     
     static {
         try {
@@ -49,10 +58,38 @@ public class Rengine extends Thread {
 	/** constant to be used in {@link #rniSpecialObject} to return <code>R_BlankString</code> reference */
 	public static final int SO_BlankString  = 7;
 
+	// flags returned by rniDescribe
+	/** flag returned by {@link #rniDescribe}: the object has a <code>dim</code> attribute */
+	public static final int DESC_DIM = 1;
+	/** flag returned by {@link #rniDescribe}: the object has a <code>names</code> attribute */
+	public static final int DESC_NAMES = 2;
+	/** flag returned by {@link #rniDescribe}: the object has a <code>levels</code> attribute */
+	public static final int DESC_LEVELS = 4;
+	/** flag returned by {@link #rniDescribe}: the object inherits from <code>factor</code> */
+	public static final int DESC_FACTOR = 8;
+
+	// flags to be used with evalBatch
+	/** flag for {@link #evalBatch}: return the result of the statement */
+	public static final int BATCH_RESULT = 1;
+	/** flag for {@link #evalBatch}: return the result as a pure reference (see {@link #eval(String,boolean)}), only meaningful in conjunction with {@link #BATCH_RESULT} */
+	public static final int BATCH_NOCONVERT = 2;
+	/** flag for {@link #evalBatch}: if the statement fails, the remaining statements are not run */
+	public static final int BATCH_STOP_ON_ERROR = 4;
+
+	// status codes reported by evalBatch
+	/** status reported by {@link #evalBatch}: statement was evaluated successfully */
+	public static final int BATCH_OK = 0;
+	/** status reported by {@link #evalBatch}: statement could not be parsed */
+	public static final int BATCH_PARSE_ERROR = 1;
+	/** status reported by {@link #evalBatch}: an error occurred while evaluating the statement */
+	public static final int BATCH_EVAL_ERROR = 2;
+	/** status reported by {@link #evalBatch}: statement was not run because a previous statement failed */
+	public static final int BATCH_SKIPPED = -1;
+
 	/**	API version of the Rengine itself; see also rniGetVersion() for binary version. It's a good idea for the calling program to check the versions of both and abort if they don't match. This should be done using {@link #versionCheck}
 		@return version number as <code>long</code> in the form <code>0xMMmm</code> */
     public static long getVersion() {
-        return 0x010a;
+        return 0x010b;
     }
 
     /** check API version of this class and the native binary. This is usually a good idea to ensure consistency.
@@ -64,7 +101,7 @@ public class Rengine extends Thread {
     /** debug flag. Set to value &gt;0 to enable debugging messages. The verbosity increases with increasing number */
     public static int DEBUG = 0;
 	
-	/** this value specifies the time (in ms) to spend sleeping between checks for R shutdown requests if R event loop is not used. The default is 200ms. Higher values lower the CPU usage but may make R less responsive to shutdown attempts (in theory it should not matter because {@link #stop()} uses interrupt to awake from the idle sleep immediately, but some implementation may not honor that).
+	/** this value specifies the time (in ms) to spend sleeping between checks for R shutdown requests if R event loop is not used. The default is 200ms. Higher values lower the CPU usage but may make R less responsive to shutdown attempts (in theory it should not matter because {@link #stop()} uses interrupt to awake from the idle sleep immediately, but some implementation may not honor that). Since JRI 0.5-5 the R thread is woken immediately by tasks posted via {@link #submit} and, on unix, by activity on R input handlers, so this value is only used as a polling fallback on platforms where waiting for events natively is not supported.
 	@since JRI 0.3
 	*/
 	public int idleDelay = 200;
@@ -92,13 +129,27 @@ public class Rengine extends Thread {
     */
     public boolean isStandAlone() { return standAlone; }
 
-    boolean died, alive, runLoop, loopRunning;
+    volatile boolean died, alive, runLoop, loopRunning;
     /** arguments used to initialize R, set by the constructor */
 	String[] args;
 	/** synchronization mutex */
 	Mutex Rsync;
 	/** callback handler */
     RMainLoopCallbacks callback;
+	/** queue of tasks to be run on the R thread, see {@link #submit} */
+	final RDispatcher dispatcher = new RDispatcher(this);
+
+	/** R objects preserved by REXPs, released once the REXPs are collected */
+	final RReleaseQueue releaseQueue = new RReleaseQueue();
+
+	/** if <code>true</code> results are converted lazily, see {@link #setLazyConversion} */
+	volatile boolean lazyConversion;
+
+	/** conversion limits, see {@link #setConversionLimits} */
+	volatile int maxConvertDepth = 0, maxConvertNodes = -1;
+
+	/** cache of parsed expressions used by {@link #eval} and {@link #idleEval} or <code>null</code> if disabled */
+	volatile RParseCache parseCache;
 	
     /** create and start a new instance of R. 
 	@param args arguments to be passed to R. Please note that R requires the presence of certain arguments (e.g. <code>--save</code> or <code>--no-save</code> or equivalents), so passing an empty list usually doesn't work.
@@ -175,6 +226,24 @@ public class Rengine extends Thread {
 	@param parts number of expressions contained in the string
 	@return reference to the resulting list of expressions */
     public synchronized native long rniParse(String s, int parts);
+    /** RNI: construct a function call from Java objects and evaluate it (do NOT use directly unless you know exactly what you're doing, where possible use {@link #call(String,Object...)} instead). Note that no synchronization is performed!
+	@param fname name of the function or <code>null</code> if <code>fun</code> should be used
+	@param fun reference to the function, only used if <code>fname</code> is <code>null</code>
+	@param args arguments or <code>null</code> if there are none. Supported types are <code>Double</code>, <code>Integer</code>, <code>Boolean</code>, <code>String</code>, <code>double[]</code>, <code>int[]</code>, <code>boolean[]</code>, <code>byte[]</code>, <code>String[]</code>, {@link RComplexVector}, {@link RStringVector} and <code>REXP</code>. <code>null</code> is passed as <code>NULL</code>.
+	@param names argument names or <code>null</code> if all arguments are unnamed. <code>null</code> elements denote unnamed arguments.
+	@param rho environment to use for evaluation (or 0 for global environemnt)
+	@return result of the evaluation or 0 if an error occurred
+	@throws IllegalArgumentException if an argument cannot be converted
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native long rniCall(String fname, long fun, Object[] args, String[] names, long rho);
+    /** RNI: parse and evaluate a batch of statements (do NOT use directly unless you know exactly what you're doing, where possible use {@link #evalBatch} instead). Note that no synchronization is performed!
+	@param exprs statements to parse and evaluate
+	@param flags per-statement flags (see <code>BATCH_xxx</code> flag constants) or <code>null</code>. Only {@link #BATCH_RESULT} and {@link #BATCH_STOP_ON_ERROR} are used here.
+	@param rho environment to use for evaluation (or 0 for global environemnt)
+	@param status array receiving the status of each statement (see <code>BATCH_xxx</code> status constants)
+	@return reference to a generic vector containing the requested results (<code>NULL</code> for all others) or 0 if the arguments are invalid. The vector is preserved and must be released using {@link #rniRelease}.
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native long rniEvalBatch(String[] exprs, int[] flags, long rho, int[] status);
     /** RNI: evaluate R expression (do NOT use directly unless you know exactly what you're doing, where possible use {@link #eval} instead). Note that no synchronization is performed!
 	@param exp reference to the expression to evaluate
 	@param rho environment to use for evaluation (or 0 for global environemnt)
@@ -198,6 +267,18 @@ public class Rengine extends Thread {
 	@param exp reference to STRSXP
 	@return contents or <code>null</code> if the reference is not STRSXP */
     public synchronized native String[] rniGetStringArray(long exp);
+    /** RNI: get the contents of a character vector in compact form: distinct strings are transferred once as UTF-8 and decoded on demand (see {@link RStringVector})
+	@param exp reference to STRSXP
+	@return contents or <code>null</code> if the reference is not STRSXP
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native RStringVector rniGetStringBlob(long exp);
+    /** RNI: create a character vector from UTF-8 encoded strings in one pass (see {@link RStringVector}). Each distinct string is converted only once.
+	@param blob UTF-8 encoded distinct strings
+	@param offsets offsets of the distinct strings in <code>blob</code>, one more entry than there are distinct strings (the last one is the end of the last string)
+	@param index for each element the index of its distinct string, negative values denote <code>NA</code>
+	@return reference to the resulting STRSXP or 0 if the offsets are invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native long rniPutStringBlob(byte[] blob, int[] offsets, int[] index);
     /** RNI: get the contents of an integer vector
 	@param exp reference to INTSXP
 	@return contents or <code>null</code> if the reference is not INTSXP */
@@ -216,6 +297,114 @@ public class Rengine extends Thread {
 	 @param exp reference to RAWSXP
 	 @return contents or <code>null</code> if the reference is not RAWSXP */
     public synchronized native byte[] rniGetRawArray(long exp);
+    /** RNI: get a direct buffer mapped onto the data of a vector (no copy is made). The buffer is only valid as long as the R object exists, so the object must be preserved while the buffer is in use. Modifying the buffer modifies the R object. Use {@link #getBuffer} instead unless you know exactly what you're doing.
+	@param exp reference to REALSXP, INTSXP, LGLSXP or RAWSXP
+	@return direct byte buffer covering the data of the vector or <code>null</code> if the type is not supported or the data is larger than 2GB (the capacity of a buffer is an <code>int</code>)
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native ByteBuffer rniGetDataBuffer(long exp);
+    /** RNI: get the length of an R object (number of elements of a vector or list)
+	@param exp reference to an R object
+	@return length or -1 if the reference is invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native long rniGetLength(long exp);
+    /** RNI: copy a part of a numeric vector into an existing array. In contrast to {@link #rniGetDoubleArray} no memory is allocated, so vectors of any size can be processed in chunks of fixed size using the same array. The number of elements copied is limited by the remaining length of the vector and by the remaining space in the array, so the end of the vector is reached when the return value is less than <code>len</code>.
+	@param exp reference to REALSXP
+	@param offset index of the first element of the vector to copy
+	@param len maximal number of elements to copy
+	@param dst destination array
+	@param dstOff index in the destination array where the first element will be stored
+	@return number of elements copied or -1 if the reference is not REALSXP or the arguments are invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native int rniGetDoubleRegion(long exp, long offset, int len, double[] dst, int dstOff);
+    /** RNI: copy a part of an integer vector into an existing array, see {@link #rniGetDoubleRegion} for details
+	@param exp reference to INTSXP
+	@param offset index of the first element of the vector to copy
+	@param len maximal number of elements to copy
+	@param dst destination array
+	@param dstOff index in the destination array where the first element will be stored
+	@return number of elements copied or -1 if the reference is not INTSXP or the arguments are invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native int rniGetIntRegion(long exp, long offset, int len, int[] dst, int dstOff);
+    /** RNI: copy a part of a logical vector in its integer form into an existing array, see {@link #rniGetDoubleRegion} for details
+	@param exp reference to LGLSXP
+	@param offset index of the first element of the vector to copy
+	@param len maximal number of elements to copy
+	@param dst destination array
+	@param dstOff index in the destination array where the first element will be stored
+	@return number of elements copied or -1 if the reference is not LGLSXP or the arguments are invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native int rniGetBoolRegionI(long exp, long offset, int len, int[] dst, int dstOff);
+    /** RNI: copy a part of a raw vector into an existing array, see {@link #rniGetDoubleRegion} for details
+	@param exp reference to RAWSXP
+	@param offset index of the first element of the vector to copy
+	@param len maximal number of elements to copy
+	@param dst destination array
+	@param dstOff index in the destination array where the first element will be stored
+	@return number of elements copied or -1 if the reference is not RAWSXP or the arguments are invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native int rniGetRawRegion(long exp, long offset, int len, byte[] dst, int dstOff);
+    /** RNI: allocate a new vector. Atomic vectors are initialized with zeros (<code>FALSE</code> for logical vectors), character vectors with empty strings and lists with <code>NULL</code>s. Together with the <code>rniSet...Region</code> methods this allows to create a vector once and then update (parts of) it in place instead of creating a new vector for every update. Note that the vector is not protected, so it must be preserved (or assigned) before any further allocation in R.<p>Updating a vector in place affects all R variables which share it, so it should only be used for vectors which are exclusively managed from Java.
+	@param type R type of the vector (one of <code>LGLSXP</code>, <code>INTSXP</code>, <code>REALSXP</code>, <code>CPLXSXP</code>, <code>RAWSXP</code>, <code>STRSXP</code> or <code>VECSXP</code>, see {@link REXP})
+	@param len length of the vector
+	@return reference to the new vector or 0 if the type is not supported
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native long rniAllocVector(int type, long len);
+    /** RNI: copy a part of an array into an existing numeric vector (in place, no new vector is created). The number of elements copied is limited by the remaining length of the vector and the remaining elements in the array.
+	@param exp reference to REALSXP
+	@param offset index of the first element in the vector to overwrite
+	@param src source array
+	@param srcOff index of the first element in the array to copy
+	@param len maximal number of elements to copy
+	@return number of elements copied or -1 if the reference is not REALSXP or the arguments are invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native int rniSetDoubleRegion(long exp, long offset, double[] src, int srcOff, int len);
+    /** RNI: copy a part of an array into an existing integer vector, see {@link #rniSetDoubleRegion} for details
+	@param exp reference to INTSXP
+	@param offset index of the first element in the vector to overwrite
+	@param src source array
+	@param srcOff index of the first element in the array to copy
+	@param len maximal number of elements to copy
+	@return number of elements copied or -1 if the reference is not INTSXP or the arguments are invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native int rniSetIntRegion(long exp, long offset, int[] src, int srcOff, int len);
+    /** RNI: copy a part of an array into an existing logical vector, see {@link #rniSetDoubleRegion} for details. Values are in the integer form (0 = <code>FALSE</code>, 1 = <code>TRUE</code>, <code>Integer.MIN_VALUE</code> = <code>NA</code>).
+	@param exp reference to LGLSXP
+	@param offset index of the first element in the vector to overwrite
+	@param src source array
+	@param srcOff index of the first element in the array to copy
+	@param len maximal number of elements to copy
+	@return number of elements copied or -1 if the reference is not LGLSXP or the arguments are invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native int rniSetBoolRegionI(long exp, long offset, int[] src, int srcOff, int len);
+    /** RNI: copy a part of an array into an existing raw vector, see {@link #rniSetDoubleRegion} for details
+	@param exp reference to RAWSXP
+	@param offset index of the first element in the vector to overwrite
+	@param src source array
+	@param srcOff index of the first element in the array to copy
+	@param len maximal number of elements to copy
+	@return number of elements copied or -1 if the reference is not RAWSXP or the arguments are invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native int rniSetRawRegion(long exp, long offset, byte[] src, int srcOff, int len);
+    /** RNI: copy data from a direct buffer into an existing numeric, integer, logical or raw vector. The data in the buffer must be in the native representation (and byte order) of the vector elements. The position and limit of the buffer are ignored.
+	@param exp reference to REALSXP, INTSXP, LGLSXP or RAWSXP
+	@param offset index of the first element in the vector to overwrite
+	@param src direct buffer
+	@param srcOff offset (in bytes) of the first element in the buffer
+	@param len maximal number of elements to copy
+	@return number of elements copied or -1 if the buffer is not direct, the type of the vector is not supported or the arguments are invalid
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native int rniSetBufferRegion(long exp, long offset, ByteBuffer src, int srcOff, int len);
+    /** RNI: get the dimensions of an array or matrix
+	@param exp reference to an R object
+	@return contents of the <code>dim</code> attribute or <code>null</code> if there is none
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native int[] rniGetDim(long exp);
+    /** RNI: get the contents and dimensions of a numeric matrix in one call
+	@param exp reference to a REALSXP or INTSXP with a <code>dim</code> attribute of length 2 (integer matrices are converted to doubles)
+	@param dim array of length (at least) 2 which will receive the number of rows and columns
+	@return contents in column-major order (as stored in R) or <code>null</code> if the reference is not a numeric matrix
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native double[] rniGetDoubleMatrix(long exp, int[] dim);
     /** RNI: get the contents of a generic vector (aka list)
 	@param exp reference to VECSXP
 	@return contents as an array of references or <code>null</code> if the reference is not VECSXP */
@@ -223,6 +412,16 @@ public class Rengine extends Thread {
     
 	/** RNI: get the contents of a raw complex number array */
 	public synchronized native RComplexNumber[] rniGetComplexNumberArray(long exp); 
+    /** RNI: get the contents of a complex vector without creating an object for each element
+	@param exp reference to CPLXSXP
+	@return contents as interleaved real and imaginary parts (<code>re[0], im[0], re[1], im[1], ...</code>) or <code>null</code> if the reference is not CPLXSXP
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native double[] rniGetComplexArray(long exp);
+    /** RNI: create a complex vector
+	@param a interleaved real and imaginary parts (<code>re[0], im[0], re[1], im[1], ...</code>)
+	@return reference to the resulting CPLXSXP
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native long rniPutComplexArray(double[] a);
 
     /** RNI: create a character vector of the length 1
 	@param s initial contents of the first entry
@@ -319,6 +518,11 @@ public class Rengine extends Thread {
 		@param exp reference to the list
 		@return reference to TAG of the list (tail) */
     public synchronized native long rniTAG(long exp);
+    /** RNI: replace CAR of a dotted-pair list (LISTSXP or LANGSXP) in place
+	@param exp reference to the list
+	@param val reference to the new CAR (0 for <code>NULL</code>)
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native void rniSetCAR(long exp, long val);
     /** RNI: create a dotted-pair list (LISTSXP)
 		@since API 1.5, JRI 0.3
 		@param cont contents as an array of references
@@ -358,6 +562,15 @@ public class Rengine extends Thread {
 		@since API 1.9, JRI 0.5
 		@param exp reference to an R object */
 	public synchronized native void rniRelease(long exp);
+	/** RNI: release several objects previously preserved via rniPreserve in one call (the same as calling {@link #rniRelease} for each of them).
+		@param exp references to R objects
+		@param count number of references to release (from the beginning of the array)
+		@since API 1.11, JRI 0.5-5 */
+	public synchronized native void rniReleaseAll(long[] exp, int count);
+	/** RNI: mark an object as not mutable, so R duplicates it (instead of modifying it in place) when it is changed. Used for objects whose parts are referenced by lazy {@link REXP}s without being preserved themselves.
+		@param exp reference to an R object
+		@since API 1.11, JRI 0.5-5 */
+	public synchronized native void rniMarkNotMutable(long exp);
 	
 	/** RNI: return the parent environment
 		@since API 1.9, JRI 0.5
@@ -403,12 +616,18 @@ public class Rengine extends Thread {
 		*/
 	public synchronized native Object rniXrefToJava(long exp);
 	
+    /** RNI: bind the native methods of {@link RSession} to their (unsynchronized) implementations
+	@param cls the RSession class
+	@return 0 on success
+	@since API 1.11, JRI 0.5-5 */
+    static native int rniRegisterSession(Class cls);
+
     /** RNI: return the API version of the native library
 		@return API version of the native library */
     public static native long rniGetVersion();
     
     /** RNI: interrupt the R process (if possible). Note that R handles interrupt requests in (R-thread-)synchronous, co-operative fashion as it wants to make sure that the interrupted state is recoverable. If interrupting from another thread while using blocking ReadConsole REPL make sure you also interrupt your ReadConsole call after rniStop such that R can act on the signalled interrupt.
-	@param flag determines how to attempt to inform R about the interrput. For normal (safe) operation using flag signalling must be 0. Other options are 1 (SIGINT for compatibility with older JRI API) and 2 (<tt>Rf_onintr</tT> call - use <u>only</u> on the R thread and only if you know what it means). Values other than 0 are only supported since JRI 0.5-4.
+	@param flag determines how to attempt to inform R about the interrput. For normal (safe) operation using flag signalling must be 0. Other options are 1 (SIGINT for compatibility with older JRI API) and 2 (<tt>Rf_onintr</tT> call - use <u>only</u> on the R thread and only if you know what it means). Values other than 0 are only supported since JRI 0.5-4. Since JRI 0.5-5 the flag 3 withdraws an interrupt requested with flag 0 that R has not acted upon yet.
 	@return result code (currently 0) */
     public native int rniStop(int flag);
     
@@ -425,11 +644,74 @@ public class Rengine extends Thread {
 	@param exp reference to a SEXP
 	@return type of the expression (see xxxSEXP constants) */
     public synchronized native int rniExpType(long exp);
+    /** RNI: describe an object and fetch its content in one call. This is what {@link REXP} uses for conversion, it replaces separate calls of {@link #rniExpType}, {@link #rniInherits}, {@link #rniGetAttr} and the <code>rniGet...</code> methods.
+	@param exp reference to an R object
+	@param info array of length (at least) 3 receiving the type (<code>...SXP</code>), the length (-1 if it exceeds the range of <code>int</code>) and flags (<code>DESC_xxx</code> constants)
+	@return array of five elements: content, class, names, levels and dimensions. The content is <code>RStringVector</code> for STRSXP, <code>int[]</code> for INTSXP and LGLSXP, <code>double[]</code> for REALSXP and CPLXSXP (interleaved), <code>long[]</code> references for VECSXP, <code>long[] { CAR, CDR, TAG }</code> for LISTSXP (0 for <code>NULL</code> and CDR which is not a pairlist), <code>String</code> for SYMSXP and <code>null</code> for all other types. The attributes are <code>String[]</code> or <code>null</code> if they are not present or not character vectors (names of pairlists are never returned), the dimensions are <code>int[]</code> or <code>null</code>. The result is <code>null</code> if the reference is invalid.
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native Object[] rniDescribe(long exp, int[] info);
+    /** RNI: convert an object including all its elements into a tree of REXPs in one native pass (the result is the same as that of <code>new REXP(engine, exp, true)</code>). Pairlists are walked iteratively, so they may be arbitrarily long. Parts of the object beyond the given limits are returned as lazy REXPs (see {@link REXP#REXP(Rengine,long,boolean,boolean)}) which are converted when they are accessed.
+	@param exp reference to an R object
+	@param maxDepth number of nesting levels to convert, 0 for no limit (the nesting is limited to 1024 levels in any case to protect the C stack)
+	@param maxNodes maximal number of objects to convert, -1 for no limit
+	@return converted REXP or <code>null</code> if the reference is invalid or the conversion failed
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native REXP rniConvertTree(long exp, int maxDepth, int maxNodes);
+    /** RNI: convert a data frame into an {@link RDataFrame} in one call
+	@param exp reference to a data frame
+	@return data frame or <code>null</code> if the object is not a data frame
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native RDataFrame rniGetDataFrame(long exp);
+    /** RNI: create a data frame from columns (see {@link RDataFrame} for the types and content of columns). Columns of the type <code>OTHER</code> are not supported.
+	@param nrow number of rows
+	@param names column names
+	@param types column types (<code>RDataFrame</code> type constants)
+	@param data column content
+	@param extra levels of factors, time zones of POSIXct columns (<code>null</code> for other columns)
+	@param rowNames row names or <code>null</code> for automatic row names
+	@return reference to the new data frame or 0 if the columns are not consistent
+	@since API 1.11, JRI 0.5-5 */
+    public synchronized native long rniPutDataFrame(int nrow, String[] names, int[] types, Object[] data, Object[] extra, String[] rowNames);
     /** RNI: run the main loop.<br> <i>Note:</i> this is an internal method and it doesn't return until the loop exits. Don't use directly! */
     public native void rniRunMainLoop();
     
-    /** RNI: run other event handlers in R */
-    public synchronized native void rniIdle();
+    /** RNI: run other event handlers in R. If called on the R thread from {@link RMainLoopCallbacks#rReadConsole} while R waits for console input, tasks queued by {@link #submit} are run and collected R objects are released as well. */
+    public synchronized void rniIdle() {
+	if (consoleWait && Thread.currentThread() == this) {
+	    consoleWait = false; // a task may ask for console input itself
+	    try {
+		runQueued(false);
+	    } finally {
+		consoleWait = true;
+	    }
+	}
+	rniRunIdleHandlers();
+    }
+
+    /** RNI: run R input handlers which have pending activity, used by {@link #rniIdle}
+	@since API 1.11, JRI 0.5-5 */
+    native void rniRunIdleHandlers();
+
+    /** RNI: take a snapshot of the file descriptors of R's input handlers to be watched by {@link #rniWaitEvent}. Must be called on the R thread with <code>Rsync</code> held.
+	@return number of descriptors watched or -1 if event waiting is not supported on this platform
+	@since API 1.11, JRI 0.5-5 */
+    native int rniUpdateEventMask();
+    /** RNI: check whether R's input handlers changed since the last call to {@link #rniUpdateEventMask}. Must be called with <code>Rsync</code> held.
+	@return <code>true</code> if the snapshot is out of date
+	@since API 1.11, JRI 0.5-5 */
+    native boolean rniEventMaskChanged();
+    /** RNI: block until one of R's input handlers has activity, {@link #rniWakeup} is called or the timeout elapses. Must only be called on the R thread, but does NOT require <code>Rsync</code>.
+	@param timeout timeout in milliseconds or -1 to wait indefinitely
+	@return 0 on timeout, 1 if event handlers should be run (see {@link #rniRunEventHandlers}), 2 if woken up or -1 if event waiting is not supported
+	@since API 1.11, JRI 0.5-5 */
+    native int rniWaitEvent(int timeout);
+    /** RNI: wake up the R thread from {@link #rniWaitEvent}. Can be called from any thread at any time.
+	@return 0 on success, -1 if event waiting is not active
+	@since API 1.11, JRI 0.5-5 */
+    native int rniWakeup();
+    /** RNI: run R input handlers which were found active by the last {@link #rniWaitEvent}. Must be called on the R thread with <code>Rsync</code> held.
+	@since API 1.11, JRI 0.5-5 */
+    synchronized native void rniRunEventHandlers();
 
     /** Add a handler for R callbacks. The current implementation supports only one handler at a time, so call to this function implicitly removes any previous handlers */
     public void addMainLoopCallbacks(RMainLoopCallbacks c)
@@ -441,6 +723,7 @@ public class Rengine extends Thread {
     /** if Rengine was initialized with <code>runMainLoop=false</code> then this method can be used to start the main loop at a later point. It has no effect if the loop is running already. This method returns immediately but the loop will be started once the engine is ready. Please note that there is currently no way of stopping the R thread if the R event loop is running other than using <code>quit</code> command in R which closes the entire application. */
     public void startMainLoop() {
 		runLoop=true;
+		dispatcher.wakeup();
     }
     
     //============ R callback methods =========
@@ -467,11 +750,20 @@ public class Rengine extends Thread {
     {
 	if (DEBUG>1)
 	    System.out.println("Rengine.jreReadConsole BEGIN "+Thread.currentThread());
+	boolean wasWaiting = consoleWait;
         if (loopHasLock) {
+	    dispatcher.drain(); // R waits for input, so it's a good time to run queued tasks
+	    releaseQueue.drain(this, null);
 	    Rsync.unlock();
 	    loopHasLock = false;
+	    consoleWait = true; // rniIdle() may run more of them until the input arrives
+	}
+	String s;
+	try {
+	    s = (callback == null) ? null : callback.rReadConsole(this, prompt, addToHistory);
+	} finally {
+	    consoleWait = wasWaiting;
 	}
-        String s = (callback == null) ? null : callback.rReadConsole(this, prompt, addToHistory);
         loopHasLock = Rsync.safeLock();
 	if (!loopHasLock) {
             String es = "\n>>JRI Warning: jriReadConsole detected a possible deadlock ["+Rsync+"]["+Thread.currentThread()+"]. Proceeding without lock, but this is inherently unsafe.\n";
@@ -547,22 +839,136 @@ public class Rengine extends Thread {
                 System.err.print(es);
             }
              */
-            long pr = rniParse(s, 1);
+            long pr = parseExpr(s);
             if (pr != 0) {
+                // a cached expression could be evicted by a nested eval from a callback, so keep it protected
+                rniProtect(pr);
                 long er = rniEval(pr, 0);
+                rniUnprotect(1);
                 if (er != 0) {
-                    REXP x = new REXP(this, er, convert);
+                    REXP x = createREXP(er, convert);
                     if (DEBUG>0) System.out.println("Rengine.eval("+s+"): END (OK)"+Thread.currentThread());
                     return x;
                 }
             }
         } finally {
-            if (obtainedLock) Rsync.unlock();
+            if (obtainedLock) unlockAfterEval();
         }
         if (DEBUG>0) System.out.println("Rengine.eval("+s+"): END (ERR)"+Thread.currentThread());
         return null;
     }
     
+    /** parses an expression using the parse cache if enabled. Must be called with <code>Rsync</code> held.
+	@param s expression (as string) to parse
+	@return reference to the parsed expression or 0 on parse error */
+    long parseExpr(String s) {
+	RParseCache pc = parseCache;
+	return (pc == null) ? rniParse(s, 1) : pc.parse(s);
+    }
+
+    /** Enables, resizes or disables the cache of parsed expressions. If enabled, {@link #eval(String,boolean)} and {@link #idleEval(String,boolean)} keep the parsed form of the most recently used expressions so that repeated evaluation of the same source text doesn't need to invoke the R parser again. This is useful if the same expression templates are evaluated over and over. The cache is disabled by default.
+	@param size maximal number of cached expressions, 0 disables the cache and releases all cached expressions
+	@since JRI 0.5-5 */
+    public synchronized void setParseCacheSize(int size) {
+	if (size < 0) throw new IllegalArgumentException("size must not be negative");
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    if (size == 0) {
+		if (parseCache != null) {
+		    parseCache.clear();
+		    parseCache = null;
+		}
+	    } else if (parseCache == null)
+		parseCache = new RParseCache(this, size);
+	    else
+		parseCache.setCapacity(size);
+	} finally {
+	    if (obtainedLock) Rsync.unlock();
+	}
+    }
+
+    /** Enables or disables lazy conversion of results. If enabled, results of {@link #eval(String,boolean)}, {@link #call(String,Object...)} and the other high-level methods that are requested with conversion are returned as lazy REXPs: the R object is preserved and its content (including elements of lists and attributes) is only converted when it is accessed for the first time, see {@link REXP#REXP(Rengine,long,boolean,boolean)}. This avoids converting (potentially large) parts of results that are never used. Lazy conversion is disabled by default.
+	@param lazy <code>true</code> to enable lazy conversion
+	@since JRI 0.5-5 */
+    public void setLazyConversion(boolean lazy) {
+	lazyConversion = lazy;
+    }
+
+    /** returns whether lazy conversion is enabled, see {@link #setLazyConversion}
+	@return <code>true</code> if results are converted lazily
+	@since JRI 0.5-5 */
+    public boolean isLazyConversion() {
+	return lazyConversion;
+    }
+
+    /** create a REXP for a result according to the conversion settings of this engine. Must be called with <code>Rsync</code> held.
+	@param exp reference to the R object
+	@param convert if <code>false</code> a pure reference is returned
+	@return new REXP */
+    REXP createREXP(long exp, boolean convert) {
+	if (convert && !lazyConversion) {
+	    REXP x = rniConvertTree(exp, maxConvertDepth, maxConvertNodes);
+	    if (x != null) return x;
+	}
+	return new REXP(this, exp, convert, lazyConversion);
+    }
+
+    /** Sets the limits of the conversion of results. Results are converted in one native pass (see {@link #rniConvertTree}), parts of nested lists beyond the limits are returned as lazy REXPs which are converted when they are accessed. By default there is no limit except for a maximal nesting of 1024 levels. The limits have no effect if lazy conversion is enabled (see {@link #setLazyConversion}).
+	@param maxDepth number of nesting levels to convert, 0 for no limit
+	@param maxNodes maximal number of objects to convert, -1 for no limit
+	@since JRI 0.5-5 */
+    public void setConversionLimits(int maxDepth, int maxNodes) {
+	maxConvertDepth = maxDepth;
+	maxConvertNodes = maxNodes;
+    }
+
+    /** returns the cache of parsed expressions (e.g., to query its statistics)
+	@return parse cache or <code>null</code> if the cache is disabled (see {@link #setParseCacheSize})
+	@since JRI 0.5-5 */
+    public RParseCache getParseCache() {
+	return parseCache;
+    }
+
+    /** Parses and evaluates a batch of R statements, see {@link #evalBatch(String[],int[],int[])}. Status information is not reported.
+	@param exprs statements (as strings) to parse and evaluate
+	@param resultFlags per-statement flags or <code>null</code>
+	@return array of results
+	@since JRI 0.5-5 */
+    public REXP[] evalBatch(String[] exprs, int[] resultFlags) {
+	return evalBatch(exprs, resultFlags, null);
+    }
+
+    /** Parses and evaluates a batch of R statements in the global environment. All statements are processed with a single lock acquisition and in one native call. Results are only transferred for statements flagged with {@link #BATCH_RESULT}, so statements whose results are not needed cost no conversion at all.
+	@param exprs statements (as strings) to parse and evaluate in the given order. Each string may contain several expressions, in which case the value of the last one is the result of the statement.
+	@param resultFlags per-statement flags (combination of {@link #BATCH_RESULT}, {@link #BATCH_NOCONVERT} and {@link #BATCH_STOP_ON_ERROR}) or <code>null</code> if no results are needed and all statements should be run regardless of errors
+	@param status if not <code>null</code> it receives the status of each statement ({@link #BATCH_OK}, {@link #BATCH_PARSE_ERROR}, {@link #BATCH_EVAL_ERROR} or {@link #BATCH_SKIPPED}). It must have at least the length of <code>exprs</code>.
+	@return array of results of the same length as <code>exprs</code> - it contains <code>null</code> for statements that failed or whose results were not requested. <code>null</code> is returned if the arguments are invalid.
+	@since JRI 0.5-5 */
+    public REXP[] evalBatch(String[] exprs, int[] resultFlags, int[] status) {
+	if (exprs == null || (resultFlags != null && resultFlags.length < exprs.length)) return null;
+	if (status == null) status = new int[exprs.length];
+	else if (status.length < exprs.length) return null;
+	REXP[] res = new REXP[exprs.length];
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    long rl = rniEvalBatch(exprs, resultFlags, 0, status);
+	    if (rl == 0) return null;
+	    try {
+		if (resultFlags != null) {
+		    long[] rv = rniGetVector(rl);
+		    for (int i = 0; i < exprs.length; i++)
+			if ((resultFlags[i] & BATCH_RESULT) != 0 && status[i] == BATCH_OK)
+			    res[i] = createREXP(rv[i], (resultFlags[i] & BATCH_NOCONVERT) == 0);
+		}
+	    } finally {
+		rniRelease(rl);
+	    }
+	} finally {
+	    if (obtainedLock) unlockAfterEval();
+	}
+	return res;
+    }
+
     /** This method is very much like {@link #eval(String)}, except that it is non-blocking and returns <code>null</code> if the engine is busy.
         @param s string to evaluate
         @return result of the evaluation or <code>null</code> if the engine is busy
@@ -582,20 +988,220 @@ public class Rengine extends Thread {
         if (lockStatus==1) return null; // 1=locked by someone else
         boolean obtainedLock=(lockStatus==0);
         try {
-            long pr = rniParse(s, 1);
+            long pr = parseExpr(s);
             if (pr != 0) {
+                // a cached expression could be evicted by a nested eval from a callback, so keep it protected
+                rniProtect(pr);
                 long er = rniEval(pr, 0);
+                rniUnprotect(1);
                 if (er != 0) {
-                    REXP x = new REXP(this, er, convert);
+                    REXP x = createREXP(er, convert);
                     return x;
                 }
             }
         } finally {
-            if (obtainedLock) Rsync.unlock();
+            if (obtainedLock) unlockAfterEval();
         }
         return null;
     }
+
+    /** releases <code>Rsync</code> after arbitrary R code was run. R objects of collected REXPs are released first. If the code added or removed input handlers the (idle) R thread is woken up so it can watch the new set. */
+    void unlockAfterEval() {
+	try {
+	    releaseQueue.drain(this, null);
+	    if (dispatcher.nativeWait && rniEventMaskChanged()) dispatcher.wakeup();
+	} finally {
+	    Rsync.unlock();
+	}
+    }
     
+    /** Runs a block of code with exclusive access to R. <code>Rsync</code> and the engine monitor are acquired only once for the whole block and the block receives a {@link RSession} whose <code>rni</code> methods perform no synchronization at all. This is both cheaper than calling the synchronized <code>rni</code> methods of the engine repeatedly and guarantees that the sequence of native operations is atomic with respect to other threads using this engine.<p>The session must not be used outside of the block.
+	@param fn function to run, it receives the session as its argument
+	@return result of the function
+	@since JRI 0.5-5
+    */
+    public <T> T withR(Function<RSession, T> fn) {
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    synchronized (this) {
+		return fn.apply(new RSession(this));
+	    }
+	} finally {
+	    if (obtainedLock) unlockAfterEval();
+	}
+    }
+
+    /** Schedules a task for execution on the R thread and returns immediately. The calling thread neither enters the engine monitor nor waits for {@link #getRsync() Rsync}; the task is placed on a lock-free queue which is drained by the R thread. The R thread obtains the lock once and runs all pending tasks back-to-back, so it is safe to use RNI methods inside the task.<p>If the R event loop is running, queued tasks are run each time R asks for console input and whenever the console callback calls {@link #rniIdle} while it waits for the input (see {@link RMainLoopCallbacks#rReadConsole}). Callbacks that block without calling {@link #rniIdle} delay queued tasks until the user enters a line. If this engine was hooked into an existing R instance (see {@link #isStandAlone}) there is no R thread to hand off to and the task is run on the calling thread before this method returns.<p><i>Note:</i> never wait for the returned future on the R thread itself (e.g. inside a task or a callback), it would deadlock.
+	@param task function to run on the R thread, it receives this engine as its argument
+	@return future that will be completed with the result of the task or exceptionally if the task throws an exception or R terminates before the task was run
+	@since JRI 0.5-5
+    */
+    public <T> CompletableFuture<T> submit(Function<Rengine, T> task) {
+	RDispatcher.Task<T> t = new RDispatcher.Task<T>(this, task);
+	if (!standAlone) {
+	    boolean obtainedLock = Rsync.safeLock();
+	    try {
+		t.run();
+	    } finally {
+		if (obtainedLock) Rsync.unlock();
+	    }
+	    return t.future;
+	}
+	if (died) {
+	    t.future.completeExceptionally(new IllegalStateException("R engine is not running"));
+	    return t.future;
+	}
+	dispatcher.post(t);
+	if (died) // R may have terminated while we were posting
+	    dispatcher.abortAll(new IllegalStateException("R engine is not running"));
+	return t.future;
+    }
+
+    /** Asynchronous version of {@link #eval(String)}, see {@link #submit} for details on how the evaluation is scheduled.
+	@param s expression (as string) to parse and evaluate
+	@return future that will be completed with the resulting expression or <code>null</code> if something went wrong
+	@since JRI 0.5-5
+    */
+    public CompletableFuture<REXP> evalAsync(String s) {
+	return evalAsync(s, true);
+    }
+
+    /** Asynchronous version of {@link #eval(String,boolean)}, see {@link #submit} for details on how the evaluation is scheduled.
+	@param s expression (as string) to parse and evaluate
+	@param convert flag denoting whether an empty or fully-converted REXP should be returned (see {@link #eval(String,boolean)} for details)
+	@return future that will be completed with the resulting expression or <code>null</code> if something went wrong
+	@since JRI 0.5-5
+    */
+    public CompletableFuture<REXP> evalAsync(final String s, final boolean convert) {
+	return submit(new Function<Rengine, REXP>() {
+		public REXP apply(Rengine re) { return re.eval(s, convert); }
+	    });
+    }
+
+    /** Asynchronous evaluation with a deadline. The evaluation is scheduled like {@link #evalAsync(String,boolean)}, but if it doesn't finish within the given time (measured from the call of this method, so it includes the time spent waiting in the queue) or if the returned future is cancelled, R is interrupted via {@link #rniStop rniStop(0)}. The interrupt is co-operative: R aborts the evaluation (and thus releases the lock) at the next point where it checks for user interrupts. Compiled code that doesn't check for interrupts cannot be stopped this way.
+	@param s expression (as string) to parse and evaluate
+	@param convert flag denoting whether an empty or fully-converted REXP should be returned (see {@link #eval(String,boolean)} for details)
+	@param timeout maximal time for the evaluation
+	@param unit unit of <code>timeout</code>
+	@param rTimeLimit if <code>true</code> R's own elapsed time limit (<code>setTimeLimit(elapsed=...)</code>) is set to the timeout for the duration of the evaluation as well
+	@return future that will be completed with the resulting expression, <code>null</code> if something went wrong or exceptionally with <code>TimeoutException</code> if the deadline expired
+	@since JRI 0.5-5
+    */
+    public CompletableFuture<REXP> evalAsync(String s, boolean convert, long timeout, TimeUnit unit, boolean rTimeLimit) {
+	RTimedTask t = new RTimedTask(this, s, convert, rTimeLimit ? unit.toMillis(timeout) / 1000.0 : 0);
+	return t.start(timeout, unit);
+    }
+
+    /** Evaluates an expression with a deadline and waits for the result, see {@link #evalAsync(String,boolean,long,TimeUnit,boolean)}. The calling thread waits without holding any lock, so this method is safe to use from virtual threads. If the calling thread is interrupted, the evaluation is interrupted as well.
+	@param s expression (as string) to parse and evaluate
+	@param convert flag denoting whether an empty or fully-converted REXP should be returned (see {@link #eval(String,boolean)} for details)
+	@param timeout maximal time for the evaluation
+	@param unit unit of <code>timeout</code>
+	@return resulting expression or <code>null</code> if something went wrong
+	@throws TimeoutException if the evaluation didn't finish in time (R was interrupted)
+	@throws CancellationException if the calling thread was interrupted while waiting
+	@since JRI 0.5-5
+    */
+    public REXP eval(String s, boolean convert, long timeout, TimeUnit unit) throws TimeoutException {
+	CompletableFuture<REXP> f = evalAsync(s, convert, timeout, unit, false);
+	try {
+	    return f.get();
+	} catch (InterruptedException e) {
+	    f.cancel(false);
+	    Thread.currentThread().interrupt();
+	    CancellationException ce = new CancellationException("interrupted while waiting for R");
+	    ce.initCause(e);
+	    throw ce;
+	} catch (ExecutionException e) {
+	    Throwable c = e.getCause();
+	    if (c instanceof TimeoutException) throw (TimeoutException) c;
+	    if (c instanceof RuntimeException) throw (RuntimeException) c;
+	    if (c instanceof Error) throw (Error) c;
+	    throw new RuntimeException(c);
+	}
+    }
+
+    /** Runs a task on the R thread and waits for its result. This is the blocking counterpart of {@link #submit}: the task is handed off through the queue and the calling thread waits on the resulting future using <code>java.util.concurrent</code> primitives only. In contrast to the <code>synchronized</code> methods of this class (such as {@link #eval}), the calling thread never holds a monitor nor executes native code while R is busy, so virtual threads waiting here don't pin their carrier threads and any number of them can wait for R at the same time.<p>If the calling thread already owns {@link #getRsync() Rsync} (e.g. the R thread itself inside a callback or another task) or the engine has no R thread of its own (see {@link #isStandAlone}) the task is run directly.<p>If the R event loop is running, the task runs the next time R asks for console input or when the console callback calls {@link #rniIdle} while waiting for it, so with a callback that just blocks the caller waits until the user enters a line. This applies to every console read of the event loop, including <code>readline()</code> or <code>browser()</code> inside an evaluation entered at the prompt - the task then runs in the middle of that evaluation, just like evaluations from other threads which obtain {@link #getRsync() Rsync} at that point. Console reads in code run by a task don't run further tasks.
+	@param task function to run on the R thread, it receives this engine as its argument
+	@return result of the task
+	@throws CancellationException if the calling thread was interrupted while waiting. The task is cancelled unless it has already started, the interrupt status of the thread is preserved.
+	@throws IllegalStateException if R terminated before the task was run
+	@since JRI 0.5-5
+    */
+    public <T> T execute(Function<Rengine, T> task) {
+	if (Rsync.getOwner() == Thread.currentThread())
+	    return task.apply(this);
+	CompletableFuture<T> f = submit(task);
+	try {
+	    return f.get();
+	} catch (InterruptedException e) {
+	    f.cancel(false);
+	    Thread.currentThread().interrupt();
+	    CancellationException ce = new CancellationException("interrupted while waiting for R");
+	    ce.initCause(e);
+	    throw ce;
+	} catch (ExecutionException e) {
+	    Throwable c = e.getCause();
+	    if (c instanceof RuntimeException) throw (RuntimeException) c;
+	    if (c instanceof Error) throw (Error) c;
+	    throw new RuntimeException(c);
+	}
+    }
+
+    /** Evaluates an expression on the R thread and waits for the result, equivalent to <code>evalQueued(s, true)</code>.
+	@param s expression (as string) to parse and evaluate
+	@return resulting expression or <code>null</code> if something went wrong
+	@since JRI 0.5-5
+    */
+    public REXP evalQueued(String s) {
+	return evalQueued(s, true);
+    }
+
+    /** Blocking version of {@link #evalAsync(String,boolean)} which is safe to use from virtual threads, see {@link #execute} for details (including when the evaluation runs if the R event loop is running). The result is the same as that of {@link #eval(String,boolean)}.
+	@param s expression (as string) to parse and evaluate
+	@param convert flag denoting whether an empty or fully-converted REXP should be returned (see {@link #eval(String,boolean)} for details)
+	@return resulting expression or <code>null</code> if something went wrong
+	@since JRI 0.5-5
+    */
+    public REXP evalQueued(final String s, final boolean convert) {
+	return execute(new Function<Rengine, REXP>() {
+		public REXP apply(Rengine re) { return re.eval(s, convert); }
+	    });
+    }
+
+    /** runs all tasks queued by {@link #submit} and refreshes the set of watched input handlers. Must be called on the R thread.
+	@param events if <code>true</code> R input handlers with pending activity are run as well */
+    void runQueued(boolean events) {
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    dispatcher.drain();
+	    releaseQueue.drain(this, null);
+	    if (events) rniRunEventHandlers();
+	    if (dispatcher.nativeWait) rniUpdateEventMask();
+	} finally {
+	    if (obtainedLock) Rsync.unlock();
+	}
+    }
+
+    /** releases R objects of REXPs that have been garbage-collected. Rsync is only obtained if there is anything to release. */
+    void releaseCollected() {
+	RReleaseQueue.Ref r = releaseQueue.poll();
+	if (r == null) return;
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    releaseQueue.drain(this, r);
+	} finally {
+	    if (obtainedLock) Rsync.unlock();
+	}
+    }
+
+    /** returns the number of R objects which are currently preserved on behalf of REXPs (lazy REXPs and references). Objects of REXPs that were collected by the Java garbage collector are counted until they are released by the R thread or the next evaluation.
+	@return number of preserved objects
+	@since JRI 0.5-5 */
+    public int getPreservedCount() {
+	return releaseQueue.getCount();
+    }
+
 	/** returns the synchronization mutex for this engine. If an external code needs to use RNI calls, it should do so only in properly protected environment secured by this mutex. Usually the procedure should be as follows:<pre>
 	boolean obtainedLock = e.getRsync().safeLock();
 	try {
@@ -621,6 +1227,7 @@ public class Rengine extends Thread {
     public void end() {
         alive = false;
         interrupt();
+        dispatcher.wakeup(); // interrupt() doesn't break out of the native event wait
     }
     
     /** The implementation of the R thread. This method should not be called directly. */	
@@ -631,8 +1238,10 @@ public class Rengine extends Thread {
 	try {
 	    if (setupR(args) == 0) {
 		if (!runLoop && loopHasLock) { // without event loop we can unlock now since we woin't do anything
+		    dispatcher.nativeWait = (rniUpdateEventMask() >= 0);
 		    Rsync.unlock();
 		    loopHasLock = false;
+		    releaseQueue.watch(dispatcher); // the idle R thread doesn't poll, so it has to be woken up to release objects
 		}
 		while (alive) {
 		    try {
@@ -649,10 +1258,16 @@ public class Rengine extends Thread {
 			    died = true;
 			    return;
 			}
-			sleep(idleDelay);
-			if (runLoop) rniIdle();
-		    } catch (InterruptedException ie) {
-			interrupted();
+			// returns as soon as a task is posted or an input handler fires
+			int ev = dispatcher.await(idleDelay);
+			interrupted(); // clear the flag in case end() woke us up
+			if (ev != RDispatcher.EV_NONE || dispatcher.hasWork())
+			    runQueued(ev == RDispatcher.EV_HANDLERS);
+			else
+			    releaseCollected();
+		    } catch (Exception e) {
+			if (DEBUG > 0)
+			    System.out.println("Rengine.run: "+e);
 		    }
 		}
 		died=true;
@@ -663,6 +1278,8 @@ public class Rengine extends Thread {
 	    }
 	} finally {
 	    if (loopHasLock) Rsync.unlock();
+	    releaseQueue.unwatch();
+	    dispatcher.abortAll(new IllegalStateException("R engine terminated"));
 	}
     }
 	
@@ -691,32 +1308,139 @@ public class Rengine extends Thread {
     public boolean assign(String sym, REXP r) {
 	boolean obtainedLock = Rsync.safeLock();
 	try {
-	    if (r.Xt == REXP.XT_NONE) {
-		return rniAssign(sym, r.xp, 0);
-	    }
-	    if (r.Xt == REXP.XT_INT || r.Xt == REXP.XT_ARRAY_INT) {
-    		int[] cont = r.rtype == REXP.XT_INT?new int[]{((Integer)r.cont).intValue()}:(int[])r.cont;
-    		long x1 = rniPutIntArray(cont);
-    		return rniAssign(sym,x1,0);
-	    }
-	    if (r.Xt == REXP.XT_DOUBLE || r.Xt == REXP.XT_ARRAY_DOUBLE) {
-    		double[] cont = r.rtype == REXP.XT_DOUBLE?new double[]{((Double)r.cont).intValue()}:(double[])r.cont;
-    		long x1 = rniPutDoubleArray(cont);
-    		return rniAssign(sym,x1,0);
-	    }
-	    if (r.Xt == REXP.XT_ARRAY_BOOL_INT) {
-		long x1 = rniPutBoolArrayI((int[])r.cont);
+	    long x1 = putREXP(r);
+	    if (x1 != 0)
 		return rniAssign(sym,x1,0);
+	} finally {
+	    if (obtainedLock) Rsync.unlock();
+	}
+	return false;
+    }
+
+    /** create an R object from the contents of a REXP. Must be called with <code>Rsync</code> held.
+	@param r REXP. Raw references are used as-is, otherwise only basic types (int, double, int[], double[], boolean[], String, String[], complex) are supported.
+	@return reference to the R object or 0 if the REXP is not supported. Note that the returned object is not protected. */
+    long putREXP(REXP r) {
+	if (r.Xt == REXP.XT_NONE || r.lazy) // references and lazy REXPs are passed as-is
+	    return r.xp;
+	if (r.Xt == REXP.XT_INT || r.Xt == REXP.XT_ARRAY_INT) {
+	    int[] cont = r.Xt == REXP.XT_INT?new int[]{((Integer)r.cont).intValue()}:(int[])r.cont;
+	    return rniPutIntArray(cont);
+	}
+	if (r.Xt == REXP.XT_DOUBLE || r.Xt == REXP.XT_ARRAY_DOUBLE) {
+	    double[] cont = r.Xt == REXP.XT_DOUBLE?new double[]{((Double)r.cont).doubleValue()}:(double[])r.cont;
+	    return rniPutDoubleArray(cont);
+	}
+	if (r.Xt == REXP.XT_ARRAY_BOOL_INT)
+	    return rniPutBoolArrayI((int[])r.cont);
+	if (r.strings != null) // content obtained from R in compact form, pass it back without decoding
+	    return rniPutStringBlob(r.strings.blob, r.strings.offsets, r.strings.index);
+	if (r.Xt == REXP.XT_STR || r.Xt == REXP.XT_ARRAY_STR) {
+	    String[] cont = r.Xt == REXP.XT_STR?new String[]{(String)r.cont}:(String[])r.cont;
+	    if (cont.length >= 64) { // encode in Java and pass in one piece rather than fetching each string through JNI
+		RStringVector v = new RStringVector(cont);
+		return rniPutStringBlob(v.blob, v.offsets, v.index);
 	    }
-	    if (r.Xt == REXP.XT_STR || r.Xt == REXP.XT_ARRAY_STR) {
-		String[] cont = r.rtype == REXP.XT_STR?new String[]{(String)r.cont}:(String[])r.cont;
-		long x1 = rniPutStringArray(cont);
-		return rniAssign(sym,x1,0);
+	    return rniPutStringArray(cont);
+	}
+	if (r.Xt == REXP.XT_COMPLEX || r.Xt == REXP.XT_ARRAY_COMPLEX)
+	    return rniPutComplexArray(r.asComplexVector().data);
+	return 0;
+    }
+
+    /** Calls an R function with the given arguments in the global environment and returns the converted result. The call is constructed and evaluated in one native step, Java values are converted directly to R objects (see {@link #call(REXP,boolean,Object,String[],Object...)} for supported types), so no parsing is involved.
+	@param fn name of the function to call
+	@param args arguments (all unnamed)
+	@return result or <code>null</code> if an error occurred
+	@since JRI 0.5-5 */
+    public REXP call(String fn, Object... args) {
+	return call(null, true, fn, null, args);
+    }
+
+    /** Calls an R function with the given arguments in the global environment and returns the converted result.
+	@param fn function to call (a reference obtained by an evaluation without conversion)
+	@param args arguments (all unnamed)
+	@return result or <code>null</code> if an error occurred
+	@since JRI 0.5-5 */
+    public REXP call(REXP fn, REXP... args) {
+	return call(null, true, fn, null, (Object[]) args);
+    }
+
+    /** Calls an R function. The call is constructed from the function and arguments in one native step and evaluated.
+	@param env environment to evaluate the call in (a reference) or <code>null</code> for the global environment
+	@param convert if set to <code>true</code> the result is converted, otherwise a reference is returned (see {@link #eval(String,boolean)})
+	@param fn function to call - either its name as a <code>String</code> or a <code>REXP</code> referencing the function
+	@param argNames names of the arguments or <code>null</code> if all arguments are unnamed. <code>null</code> elements denote unnamed arguments.
+	@param args arguments. Supported types are <code>Double</code>, <code>Integer</code>, <code>Boolean</code>, <code>String</code>, <code>double[]</code>, <code>int[]</code>, <code>boolean[]</code>, <code>byte[]</code>, <code>String[]</code>, {@link RComplexVector}, {@link RStringVector} and <code>REXP</code> (references are passed as-is, otherwise their content is converted - basic vectors, logical values, factors and generic vectors are supported, lists, language objects and complex numbers are not). <code>null</code> is passed as <code>NULL</code>.
+	@return result or <code>null</code> if an error occurred
+	@throws IllegalArgumentException if the function or an argument is not supported
+	@since JRI 0.5-5 */
+    public REXP call(REXP env, boolean convert, Object fn, String[] argNames, Object... args) {
+	String fname = null;
+	long fun = 0;
+	if (fn instanceof String)
+	    fname = (String) fn;
+	else if (fn instanceof REXP && ((REXP) fn).xp != 0)
+	    fun = ((REXP) fn).xp;
+	else
+	    throw new IllegalArgumentException("function must be a name or a reference");
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    long er = rniCall(fname, fun, args, argNames, (env == null) ? 0 : env.xp);
+	    return (er == 0) ? null : createREXP(er, convert);
+	} finally {
+	    if (obtainedLock) unlockAfterEval();
+	}
+    }
+
+    /** Returns a read-only view of the data of an R vector without copying it, see {@link RBuffer}.
+	@param x reference to a numeric, integer, logical or raw vector (i.e. an unconverted or lazy REXP, see {@link #eval(String,boolean)})
+	@return buffer or <code>null</code> if <code>x</code> is not a reference to a supported vector or the vector is larger than 2GB
+	@since JRI 0.5-5 */
+    public RBuffer getBuffer(REXP x) {
+	if (x == null || x.xp == 0) return null;
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    synchronized (this) {
+		int type = rniExpType(x.xp);
+		ByteBuffer b = rniGetDataBuffer(x.xp);
+		if (b == null) return null;
+		rniPreserve(x.xp);
+		return new RBuffer(this, x.xp, type, b);
 	    }
 	} finally {
 	    if (obtainedLock) Rsync.unlock();
 	}
-	return false;
+    }
+
+    /** Prepares a call of an R function with the given arguments. The call is constructed only once and arguments are then bound to it directly as R objects, so repeated calls involve neither parsing nor assignments to the global environment. See {@link PreparedCall} for details.
+	@param fun name of the function to call (it is looked up at each execution, so it is used as-is, i.e. as if it was quoted in R code)
+	@param argNames names of the arguments. Use <code>null</code> for positional (unnamed) arguments.
+	@return prepared call or <code>null</code> if it couldn't be created
+	@since JRI 0.5-5 */
+    public PreparedCall prepareCall(String fun, String... argNames) {
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    long fs = rniInstallSymbol(fun);
+	    return (fs == 0) ? null : new PreparedCall(this, fs, argNames);
+	} finally {
+	    if (obtainedLock) Rsync.unlock();
+	}
+    }
+
+    /** Prepares a call of an R function with the given arguments, see {@link #prepareCall(String,String...)}.
+	@param fun function to call - it must be a reference (i.e. the result of an evaluation without conversion) to an R function. The function is kept alive as long as the prepared call is open.
+	@param argNames names of the arguments. Use <code>null</code> for positional (unnamed) arguments.
+	@return prepared call or <code>null</code> if it couldn't be created
+	@since JRI 0.5-5 */
+    public PreparedCall prepareCall(REXP fun, String... argNames) {
+	if (fun == null || fun.xp == 0) return null;
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    return new PreparedCall(this, fun.xp, argNames);
+	} finally {
+	    if (obtainedLock) Rsync.unlock();
+	}
     }
 
     /** assign values of an array of doubles to a symbol in R (creating an integer vector).<br>
@@ -763,31 +1487,77 @@ public class Rengine extends Thread {
         return assign(sym,new REXP(val));
     }
 
+    /** assign a character vector to a symbol in R. The strings are transferred in one piece and each distinct string is converted only once.
+		@param sym symbol name
+		@param val character vector to assign
+		@return <code>true</code> if successful, <code>false</code> otherwise
+		@since JRI 0.5-5
+		*/
+    public boolean assign(String sym, RStringVector val) {
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    long x = rniPutStringBlob(val.blob, val.offsets, val.index);
+	    return (x != 0) && rniAssign(sym, x, 0);
+	} finally {
+	    if (obtainedLock) Rsync.unlock();
+	}
+    }
+
+    /** assign a data frame to a symbol in R. Each column is transferred in its primitive form and the whole data frame is created in one native call.
+		@param sym symbol name
+		@param val data frame to assign
+		@return <code>true</code> if successful, <code>false</code> otherwise (e.g. if a column has the type <code>OTHER</code>)
+		@since JRI 0.5-5
+		*/
+    public boolean assign(String sym, RDataFrame val) {
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    long x = val.put(this);
+	    return (x != 0) && rniAssign(sym, x, 0);
+	} finally {
+	    if (obtainedLock) Rsync.unlock();
+	}
+    }
+
+    /** assign a complex vector to a symbol in R. The values are transferred in one piece without creating an object for each element.
+		@param sym symbol name
+		@param val complex vector to assign
+		@return <code>true</code> if successful, <code>false</code> otherwise
+		@since JRI 0.5-5
+		*/
+    public boolean assign(String sym, RComplexVector val) {
+	boolean obtainedLock = Rsync.safeLock();
+	try {
+	    return rniAssign(sym, rniPutComplexArray(val.data), 0);
+	} finally {
+	    if (obtainedLock) Rsync.unlock();
+	}
+    }
+
     /** creates a <code>jobjRef</code> reference in R via rJava.<br><b>Important:</b> rJava must be loaded and intialized in R (e.g. via <code>eval("{library(rJava);.jinit()}",false)</code>, otherwise this will fail. Requires rJava 0.4-13 or higher!
 	@param o object to push
 	@return Pure REXP reference of the newly created <code>jobjRef</code> object or <code>null</code> upon failure. It will have the type <code>XT_NONE</code> such that it can be used in @link{assign(String, REXP)}.
 	@since JRI 0.3-7
     */
-    public REXP createRJavaRef(Object o) {
+    public REXP createRJavaRef(final Object o) {
 	    if (o == null) return null;
-	    String klass = o.getClass().getName();
-	    boolean obtainedLock = Rsync.safeLock();
-	    try {
-		    long l = rniEval(
-				     rniLCons(
-					      rniInstallSymbol(".jmkref"),
-					      rniLCons(
-						       rniJavaToXref(o),
-						       rniLCons(
-								rniPutString(klass), 0
-								)
-						       )
-					      )
-				     , 0);
-		    if (l <= 0 && l > -4) return null; /* for safety failure codes are only -3 .. 0 to not clash with 64-bit pointers */
-		    return new REXP(this, l, false);
-	    } finally {
-		    if (obtainedLock) Rsync.unlock();
-	    }
+	    final String klass = o.getClass().getName();
+	    return withR(new Function<RSession, REXP>() {
+		    public REXP apply(RSession s) {
+			    long l = s.rniEval(
+					       s.rniLCons(
+							  s.rniInstallSymbol(".jmkref"),
+							  s.rniLCons(
+								     s.rniJavaToXref(o),
+								     s.rniLCons(
+										s.rniPutString(klass), 0
+										)
+								     )
+							  )
+					       , 0);
+			    if (l <= 0 && l > -4) return null; /* for safety failure codes are only -3 .. 0 to not clash with 64-bit pointers */
+			    return new REXP(Rengine.this, l, false);
+		    }
+		});
     }
 }
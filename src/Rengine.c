@@ -1,5 +1,6 @@
 /* Rengine - implements native rni methods called from the Rengine class */
 #include <stdio.h>
+#include <string.h>
 
 #include "jri.h"
 #include "org_rosuda_JRI_Rengine.h"
@@ -41,6 +42,10 @@ extern int UserBreak;
 #include <R_ext/eventloop.h>
 #include <signal.h>
 #include <unistd.h>
+/* for the event wait (rniWaitEvent) */
+#include <errno.h>
+#include <fcntl.h>
+#include <sys/select.h>
 #endif
 
 JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniGetVersion
@@ -159,6 +164,140 @@ JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniEval
       return SEXP2L(es);
 }
 
+/**
+ * Builds a call from Java objects and evaluates it
+ *
+ * @param fname name of the function (may be NULL in which case fun is used)
+ * @param fun long reflection of the function (used if fname is NULL)
+ * @param args arguments (see jri_getObject for supported types, may be NULL)
+ * @param names argument names (may be NULL, NULL elements denote unnamed arguments)
+ * @param rho long reflection of the environment where to evaluate (0 = global environment)
+ *
+ * @return result of the evaluation or 0 if an error occurred. If an argument cannot be
+ *         converted IllegalArgumentException is thrown.
+ */
+JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniCall
+  (JNIEnv *env, jobject this, jstring fname, jlong fun, jobjectArray args, jobjectArray names, jlong rho)
+{
+      SEXP fn, call, t, es;
+      int n, nn, i, er = 0;
+
+      fn = fname ? jri_installString(env, fname) : (fun ? L2SEXP(fun) : R_NilValue);
+      if (fn == R_NilValue) return 0;
+      n = args ? (int) (*env)->GetArrayLength(env, args) : 0;
+      nn = names ? (int) (*env)->GetArrayLength(env, names) : 0;
+
+      PROTECT(call = t = LCONS(fn, R_NilValue));
+      for (i = 0; i < n; i++) {
+	  jobject o = (*env)->GetObjectArrayElement(env, args, i);
+	  SEXP v = jri_getObject(env, o);
+	  if (o) (*env)->DeleteLocalRef(env, o);
+	  if (!v) {
+	      jclass ec = (*env)->FindClass(env, "java/lang/IllegalArgumentException");
+	      UNPROTECT(1);
+	      if (ec) (*env)->ThrowNew(env, ec, "unsupported argument type");
+	      return 0;
+	  }
+	  PROTECT(v);
+	  SETCDR(t, CONS(v, R_NilValue));
+	  UNPROTECT(1);
+	  t = CDR(t);
+	  if (i < nn) {
+	      jstring nm = (jstring) (*env)->GetObjectArrayElement(env, names, i);
+	      if (nm) {
+		  SET_TAG(t, jri_installString(env, nm));
+		  (*env)->DeleteLocalRef(env, nm);
+	      }
+	  }
+      }
+
+      es = R_tryEval(call, rho ? L2SEXP(rho) : R_GlobalEnv, &er);
+      UNPROTECT(1);
+      return er ? 0 : SEXP2L(es);
+}
+
+/**
+ * Parses and evaluates a batch of statements in one go
+ *
+ * @param exprs statements (each may contain several expressions, the last one determines the result)
+ * @param flags per-statement flags (may be NULL): 1 = keep result, 4 = stop the batch if the statement fails
+ * @param rho long reflection of the environment where to evaluate (0 = global environment)
+ * @param status receives per-statement status: 0 = OK, 1 = parse error, 2 = evaluation error, -1 = not run
+ *
+ * @return generic vector of the results (NULL for statements whose result was not requested or
+ *         which failed). The vector is preserved and must be released by the caller. 0 on
+ *         invalid arguments.
+ */
+JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniEvalBatch
+  (JNIEnv *env, jobject this, jobjectArray exprs, jintArray flags, jlong rho, jintArray status)
+{
+      SEXP res, eval_env = rho ? L2SEXP(rho) : R_GlobalEnv;
+      jint *fl = 0, *st;
+      int n, i, stop = 0;
+
+      if (!exprs || !status) return 0;
+      n = (int)(*env)->GetArrayLength(env, exprs);
+      if ((*env)->GetArrayLength(env, status) < n ||
+	  (flags && (*env)->GetArrayLength(env, flags) < n)) return 0;
+
+      /* we don't want to hold on to Java arrays while R is running, so we work on copies */
+      st = (jint*) malloc(sizeof(jint) * (2 * n + 1));
+      if (!st) {
+	  jri_error("rniEvalBatch: out of memory");
+	  return 0;
+      }
+      if (flags) {
+	  fl = st + n;
+	  (*env)->GetIntArrayRegion(env, flags, 0, n, fl);
+      }
+
+      PROTECT(res = allocVector(VECSXP, n));
+      for (i = 0; i < n; i++) {
+	  jstring s;
+	  SEXP cv, pe, val = R_NilValue;
+	  ParseStatus ps;
+	  int er = 0, j = 0, l;
+
+	  if (stop) {
+	      st[i] = -1;
+	      continue;
+	  }
+	  s = (jstring) (*env)->GetObjectArrayElement(env, exprs, i);
+	  if (!s) {
+	      st[i] = 1;
+	      stop = fl && (fl[i] & 4);
+	      continue;
+	  }
+	  PROTECT(cv = jri_getString(env, s));
+	  (*env)->DeleteLocalRef(env, s);
+	  pe = RS_ParseVector(cv, -1, &ps);
+	  if (ps != PARSE_OK || TYPEOF(pe) != EXPRSXP) {
+	      UNPROTECT(1);
+	      st[i] = 1;
+	      stop = fl && (fl[i] & 4);
+	      continue;
+	  }
+	  PROTECT(pe);
+	  l = LENGTH(pe);
+	  while (j < l && !er)
+	      val = R_tryEval(VECTOR_ELT(pe, j++), eval_env, &er);
+	  UNPROTECT(2);
+	  if (er) {
+	      st[i] = 2;
+	      stop = fl && (fl[i] & 4);
+	      continue;
+	  }
+	  st[i] = 0;
+	  if (fl && (fl[i] & 1))
+	      SET_VECTOR_ELT(res, i, val);
+      }
+      (*env)->SetIntArrayRegion(env, status, 0, n, st);
+      free(st);
+      R_PreserveObject(res);
+      UNPROTECT(1);
+      return SEXP2L(res);
+}
+
 struct safeAssign_s {
     SEXP sym, val, rho;
 };
@@ -201,6 +340,30 @@ JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniRelease
 	if (exp) R_ReleaseObject(L2SEXP(exp));
 }
 
+JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniReleaseAll
+(JNIEnv *env, jobject this, jlongArray exps, jint count)
+{
+	jlong *l;
+	int i;
+	if (!exps || count <= 0) return;
+	if (count > (*env)->GetArrayLength(env, exps)) count = (*env)->GetArrayLength(env, exps);
+	l = (*env)->GetLongArrayElements(env, exps, 0);
+	if (!l) return;
+	for (i = 0; i < count; i++)
+		if (l[i]) R_ReleaseObject(L2SEXP(l[i]));
+	(*env)->ReleaseLongArrayElements(env, exps, l, JNI_ABORT);
+}
+
+JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniMarkNotMutable
+(JNIEnv *env, jobject this, jlong exp)
+{
+#ifdef MARK_NOT_MUTABLE
+	if (exp) MARK_NOT_MUTABLE(L2SEXP(exp));
+#else
+	if (exp) SET_NAMED(L2SEXP(exp), 2);
+#endif
+}
+
 JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniPreserve
 (JNIEnv *env, jobject this, jlong exp)
 {
@@ -315,7 +478,7 @@ JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniExpType
     return exp ? TYPEOF(L2SEXP(exp)) : 0;
 }
 
-JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniIdle
+JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniRunIdleHandlers
   (JNIEnv *env, jobject this)
 {
 #ifndef Win32
@@ -323,12 +486,381 @@ JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniIdle
 #endif
 }
 
+/* Event wait support: while idle, the R thread blocks in select() on the descriptors of R's
+   input handlers plus a wake-up pipe which other threads write to (rniWakeup). The descriptors
+   are a snapshot taken by the R thread while it holds Rsync (rniUpdateEventMask), so select()
+   itself can run without the lock - it never touches R's handler list. On Windows there are no
+   input handlers and all of these return -1 so that the Java side falls back to polling. */
+#ifndef Win32
+#define MAX_EVENT_FDS 64
+
+static int wakePipe[2] = { -1, -1 };
+static int eventFds[MAX_EVENT_FDS];
+static int eventFdCount = 0;
+static fd_set eventReadyMask;
+static fd_set *eventReady = 0;
+
+static int snapshotEventFds(int *fds)
+{
+    InputHandler *h = R_InputHandlers;
+    int n = 0;
+    while (h && n < MAX_EVENT_FDS) {
+	/* stdin belongs to the REPL, we don't want to steal its input. Descriptors beyond FD_SETSIZE
+	   cannot be watched by select() (nor dispatched by R_runHandlers), so they are skipped. */
+	if (h->fileDescriptor > 0 && h->fileDescriptor < FD_SETSIZE && h->handler)
+	    fds[n++] = h->fileDescriptor;
+	h = h->next;
+    }
+    return n;
+}
+
+static void runEventHandlers(void *mask)
+{
+    /* NULL mask means polled events only */
+    R_runHandlers(R_InputHandlers, (fd_set*) mask);
+}
+#endif
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniUpdateEventMask
+  (JNIEnv *env, jobject this)
+{
+#ifndef Win32
+    if (wakePipe[0] < 0) {
+	if (pipe(wakePipe)) {
+	    wakePipe[0] = wakePipe[1] = -1;
+	    return -1;
+	}
+	if (wakePipe[0] >= FD_SETSIZE) { /* too many open descriptors for select(), use polling instead */
+	    close(wakePipe[0]);
+	    close(wakePipe[1]);
+	    wakePipe[0] = wakePipe[1] = -1;
+	    return -1;
+	}
+	fcntl(wakePipe[0], F_SETFL, O_NONBLOCK);
+	fcntl(wakePipe[1], F_SETFL, O_NONBLOCK);
+	fcntl(wakePipe[0], F_SETFD, FD_CLOEXEC);
+	fcntl(wakePipe[1], F_SETFD, FD_CLOEXEC);
+    }
+    eventFdCount = snapshotEventFds(eventFds);
+    return eventFdCount;
+#else
+    return -1;
+#endif
+}
+
+JNIEXPORT jboolean JNICALL Java_org_rosuda_JRI_Rengine_rniEventMaskChanged
+  (JNIEnv *env, jobject this)
+{
+#ifndef Win32
+    int fds[MAX_EVENT_FDS], n, i;
+    if (wakePipe[0] < 0) return JNI_FALSE;
+    n = snapshotEventFds(fds);
+    if (n != eventFdCount) return JNI_TRUE;
+    for (i = 0; i < n; i++)
+	if (fds[i] != eventFds[i]) return JNI_TRUE;
+#endif
+    return JNI_FALSE;
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniWaitEvent
+  (JNIEnv *env, jobject this, jint timeout)
+{
+#ifndef Win32
+    fd_set rm;
+    struct timeval tv, *tvp = 0;
+    int i, maxfd, res, poll = 0;
+    char buf[64];
+
+    if (wakePipe[0] < 0) return -1;
+    /* handlers that rely on R_PolledEvents ask for periodic calls via R_wait_usec */
+    if (R_wait_usec > 0 && (timeout < 0 || R_wait_usec < timeout * 1000)) {
+	tv.tv_sec = R_wait_usec / 1000000;
+	tv.tv_usec = R_wait_usec % 1000000;
+	tvp = &tv;
+	poll = 1;
+    } else if (timeout >= 0) {
+	tv.tv_sec = timeout / 1000;
+	tv.tv_usec = (timeout % 1000) * 1000;
+	tvp = &tv;
+    }
+    FD_ZERO(&rm);
+    FD_SET(wakePipe[0], &rm);
+    maxfd = wakePipe[0];
+    for (i = 0; i < eventFdCount; i++) {
+	FD_SET(eventFds[i], &rm);
+	if (eventFds[i] > maxfd) maxfd = eventFds[i];
+    }
+    res = select(maxfd + 1, &rm, 0, 0, tvp);
+    if (res < 0) return (errno == EINTR) ? 2 : -1;
+    if (res == 0) {
+	if (!poll) return 0;
+	eventReady = 0;
+	return 1;
+    }
+    if (FD_ISSET(wakePipe[0], &rm)) {
+	while (read(wakePipe[0], buf, sizeof(buf)) > 0) {}
+	FD_CLR(wakePipe[0], &rm);
+	res--;
+    }
+    if (res > 0) {
+	eventReadyMask = rm;
+	eventReady = &eventReadyMask;
+	return 1;
+    }
+    return 2;
+#else
+    return -1;
+#endif
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniWakeup
+  (JNIEnv *env, jobject this)
+{
+#ifndef Win32
+    char c = 0;
+    if (wakePipe[1] >= 0 && write(wakePipe[1], &c, 1) == 1) return 0;
+#endif
+    return -1;
+}
+
+JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniRunEventHandlers
+  (JNIEnv *env, jobject this)
+{
+#ifndef Win32
+    fd_set *mask = eventReady;
+    eventReady = 0;
+    /* handlers may run arbitrary R code, so make sure errors don't escape */
+    R_ToplevelExec(runEventHandlers, (void*) mask);
+#endif
+}
+
 JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniRunMainLoop
   (JNIEnv *env, jobject this)
 {
       run_Rmainloop();
 }
 
+/**
+ * Returns a direct byte buffer mapped onto the data of a vector
+ *
+ * @param exp long reflection of a numeric, integer, logical or raw vector
+ *
+ * @return direct ByteBuffer (in native byte order as far as R is concerned) or NULL if the
+ *         type is not supported. The buffer is only valid as long as the vector is not
+ *         garbage-collected, so the caller must preserve it.
+ */
+JNIEXPORT jobject JNICALL Java_org_rosuda_JRI_Rengine_rniGetDataBuffer
+  (JNIEnv *env, jobject this, jlong exp)
+{
+    SEXP e = L2SEXP(exp);
+    void *ptr;
+    jlong sz;
+
+    if (!exp) return 0;
+    switch (TYPEOF(e)) {
+    case REALSXP: ptr = REAL(e); sz = sizeof(double); break;
+    case INTSXP:  ptr = INTEGER(e); sz = sizeof(int); break;
+    case LGLSXP:  ptr = LOGICAL(e); sz = sizeof(int); break;
+    case RAWSXP:  ptr = RAW(e); sz = 1; break;
+    default: return 0;
+    }
+    sz *= (jlong) XLENGTH(e);
+    if (sz > 0x7fffffff) return 0; /* ByteBuffer capacity is an int */
+    return (*env)->NewDirectByteBuffer(env, ptr, sz);
+}
+
+JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniGetLength
+  (JNIEnv *env, jobject this, jlong exp)
+{
+    SEXP e = L2SEXP(exp);
+    if (!exp) return -1;
+    return isVector(e) ? (jlong) XLENGTH(e) : (jlong) length(e);
+}
+
+/* computes the number of elements to copy for a region request or -1 if it is invalid */
+static jint region_length(JNIEnv *env, SEXP e, int type, jlong offset, jint len, jarray dst, jint dstOff)
+{
+    jlong avail;
+    jint dlen;
+    if (!e || TYPEOF(e) != type || !dst || offset < 0 || len < 0 || dstOff < 0) return -1;
+    avail = (jlong) XLENGTH(e) - offset;
+    if (avail < 0) avail = 0;
+    if (avail < len) len = (jint) avail;
+    dlen = (*env)->GetArrayLength(env, dst);
+    if (dstOff > dlen) return -1;
+    if (len > dlen - dstOff) len = dlen - dstOff;
+    return len;
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniGetDoubleRegion
+  (JNIEnv *env, jobject this, jlong exp, jlong offset, jint len, jdoubleArray dst, jint dstOff)
+{
+    SEXP e = L2SEXP(exp);
+    jint n = region_length(env, exp ? e : 0, REALSXP, offset, len, dst, dstOff);
+    if (n > 0) (*env)->SetDoubleArrayRegion(env, dst, dstOff, n, (jdouble*) (REAL(e) + offset));
+    return n;
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniGetIntRegion
+  (JNIEnv *env, jobject this, jlong exp, jlong offset, jint len, jintArray dst, jint dstOff)
+{
+    SEXP e = L2SEXP(exp);
+    jint n = region_length(env, exp ? e : 0, INTSXP, offset, len, dst, dstOff);
+    if (n > 0) (*env)->SetIntArrayRegion(env, dst, dstOff, n, (jint*) (INTEGER(e) + offset));
+    return n;
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniGetBoolRegionI
+  (JNIEnv *env, jobject this, jlong exp, jlong offset, jint len, jintArray dst, jint dstOff)
+{
+    SEXP e = L2SEXP(exp);
+    jint n = region_length(env, exp ? e : 0, LGLSXP, offset, len, dst, dstOff);
+    if (n > 0) (*env)->SetIntArrayRegion(env, dst, dstOff, n, (jint*) (LOGICAL(e) + offset));
+    return n;
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniGetRawRegion
+  (JNIEnv *env, jobject this, jlong exp, jlong offset, jint len, jbyteArray dst, jint dstOff)
+{
+    SEXP e = L2SEXP(exp);
+    jint n = region_length(env, exp ? e : 0, RAWSXP, offset, len, dst, dstOff);
+    if (n > 0) (*env)->SetByteArrayRegion(env, dst, dstOff, n, (jbyte*) (RAW(e) + offset));
+    return n;
+}
+
+JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniAllocVector
+  (JNIEnv *env, jobject this, jint type, jlong len)
+{
+    SEXP e;
+    if (len < 0) return 0;
+    switch (type) {
+    case LGLSXP: case INTSXP: case REALSXP: case CPLXSXP: case RAWSXP: case STRSXP: case VECSXP: break;
+    default: return 0;
+    }
+    e = allocVector(type, (R_xlen_t) len);
+    /* R doesn't initialize atomic vectors */
+    switch (type) {
+    case LGLSXP: case INTSXP: memset(INTEGER(e), 0, sizeof(int) * (size_t) len); break;
+    case REALSXP: memset(REAL(e), 0, sizeof(double) * (size_t) len); break;
+    case CPLXSXP: memset(COMPLEX(e), 0, sizeof(Rcomplex) * (size_t) len); break;
+    case RAWSXP: memset(RAW(e), 0, (size_t) len); break;
+    }
+    return SEXP2L(e);
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniSetDoubleRegion
+  (JNIEnv *env, jobject this, jlong exp, jlong offset, jdoubleArray src, jint srcOff, jint len)
+{
+    SEXP e = L2SEXP(exp);
+    jint n = region_length(env, exp ? e : 0, REALSXP, offset, len, src, srcOff);
+    if (n > 0) (*env)->GetDoubleArrayRegion(env, src, srcOff, n, (jdouble*) (REAL(e) + offset));
+    return n;
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniSetIntRegion
+  (JNIEnv *env, jobject this, jlong exp, jlong offset, jintArray src, jint srcOff, jint len)
+{
+    SEXP e = L2SEXP(exp);
+    jint n = region_length(env, exp ? e : 0, INTSXP, offset, len, src, srcOff);
+    if (n > 0) (*env)->GetIntArrayRegion(env, src, srcOff, n, (jint*) (INTEGER(e) + offset));
+    return n;
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniSetBoolRegionI
+  (JNIEnv *env, jobject this, jlong exp, jlong offset, jintArray src, jint srcOff, jint len)
+{
+    SEXP e = L2SEXP(exp);
+    jint n = region_length(env, exp ? e : 0, LGLSXP, offset, len, src, srcOff);
+    if (n > 0) (*env)->GetIntArrayRegion(env, src, srcOff, n, (jint*) (LOGICAL(e) + offset));
+    return n;
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniSetRawRegion
+  (JNIEnv *env, jobject this, jlong exp, jlong offset, jbyteArray src, jint srcOff, jint len)
+{
+    SEXP e = L2SEXP(exp);
+    jint n = region_length(env, exp ? e : 0, RAWSXP, offset, len, src, srcOff);
+    if (n > 0) (*env)->GetByteArrayRegion(env, src, srcOff, n, (jbyte*) (RAW(e) + offset));
+    return n;
+}
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniSetBufferRegion
+  (JNIEnv *env, jobject this, jlong exp, jlong offset, jobject src, jint srcOff, jint len)
+{
+    SEXP e = L2SEXP(exp);
+    char *sp, *dp;
+    jlong cap, avail;
+    int sz;
+
+    if (!exp || !src || offset < 0 || srcOff < 0 || len < 0) return -1;
+    switch (TYPEOF(e)) {
+    case REALSXP: dp = (char*) REAL(e); sz = sizeof(double); break;
+    case INTSXP:  dp = (char*) INTEGER(e); sz = sizeof(int); break;
+    case LGLSXP:  dp = (char*) LOGICAL(e); sz = sizeof(int); break;
+    case RAWSXP:  dp = (char*) RAW(e); sz = 1; break;
+    default: return -1;
+    }
+    sp = (char*) (*env)->GetDirectBufferAddress(env, src);
+    cap = (*env)->GetDirectBufferCapacity(env, src);
+    if (!sp || cap < 0 || srcOff > cap) return -1;
+    avail = (jlong) XLENGTH(e) - offset;
+    if (avail < 0) avail = 0;
+    if (avail < len) len = (jint) avail;
+    if ((jlong) len * sz > cap - srcOff) len = (jint) ((cap - srcOff) / sz);
+    if (len > 0) memcpy(dp + offset * sz, sp + srcOff, (size_t) len * sz);
+    return len;
+}
+
+JNIEXPORT jintArray JNICALL Java_org_rosuda_JRI_Rengine_rniGetDim
+  (JNIEnv *env, jobject this, jlong exp)
+{
+    SEXP d;
+    if (!exp) return 0;
+    d = getAttrib(L2SEXP(exp), R_DimSymbol);
+    return (TYPEOF(d) == INTSXP) ? jri_putIntArray(env, d) : 0;
+}
+
+JNIEXPORT jdoubleArray JNICALL Java_org_rosuda_JRI_Rengine_rniGetDoubleMatrix
+  (JNIEnv *env, jobject this, jlong exp, jintArray dim)
+{
+    SEXP e = L2SEXP(exp), d;
+    jint ds[2];
+    jdoubleArray da;
+    R_xlen_t len;
+
+    if (!exp || !dim || (*env)->GetArrayLength(env, dim) < 2 ||
+	(TYPEOF(e) != REALSXP && TYPEOF(e) != INTSXP)) return 0;
+    d = getAttrib(e, R_DimSymbol);
+    if (TYPEOF(d) != INTSXP || LENGTH(d) != 2) return 0;
+    ds[0] = INTEGER(d)[0];
+    ds[1] = INTEGER(d)[1];
+    len = XLENGTH(e);
+    if ((R_xlen_t) ds[0] * (R_xlen_t) ds[1] != len || len > 0x7fffffff) return 0;
+    da = (*env)->NewDoubleArray(env, (jsize) len);
+    if (!da) {
+	jri_error("rniGetDoubleMatrix: NewDoubleArray(%ld) failed", (long) len);
+	return 0;
+    }
+    if (len > 0) {
+	if (TYPEOF(e) == REALSXP)
+	    (*env)->SetDoubleArrayRegion(env, da, 0, (jsize) len, (jdouble*) REAL(e));
+	else {
+	    jdouble *dae = (*env)->GetDoubleArrayElements(env, da, 0);
+	    int *iv = INTEGER(e);
+	    R_xlen_t i;
+	    if (!dae) {
+		(*env)->DeleteLocalRef(env, da);
+		jri_error("rniGetDoubleMatrix: GetDoubleArrayElements failed");
+		return 0;
+	    }
+	    for (i = 0; i < len; i++) dae[i] = (jdouble) iv[i];
+	    (*env)->ReleaseDoubleArrayElements(env, da, dae, 0);
+	}
+    }
+    (*env)->SetIntArrayRegion(env, dim, 0, 2, ds);
+    return da;
+}
+
 JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniPutString
 (JNIEnv *env, jobject this, jstring s)
 {
@@ -454,6 +986,59 @@ JNIEXPORT jobjectArray JNICALL Java_org_rosuda_JRI_Rengine_rniGetComplexNumberAr
     return jri_putComplexNumberArray(env, L2SEXP(exp));
 }
 
+JNIEXPORT jobject JNICALL Java_org_rosuda_JRI_Rengine_rniGetStringBlob
+(JNIEnv *env, jobject this, jlong exp)
+{
+    return exp ? jri_putStringBlob(env, L2SEXP(exp)) : 0;
+}
+
+JNIEXPORT jobject JNICALL Java_org_rosuda_JRI_Rengine_rniConvertTree
+(JNIEnv *env, jobject this, jlong exp, jint maxDepth, jint maxNodes)
+{
+    return exp ? jri_convertTree(env, this, L2SEXP(exp), maxDepth, maxNodes) : 0;
+}
+
+JNIEXPORT jobjectArray JNICALL Java_org_rosuda_JRI_Rengine_rniDescribe
+(JNIEnv *env, jobject this, jlong exp, jintArray info)
+{
+    jint in[3];
+    jobjectArray res;
+    if (!exp || !info || (*env)->GetArrayLength(env, info) < 3) return 0;
+    res = jri_describe(env, L2SEXP(exp), in);
+    (*env)->SetIntArrayRegion(env, info, 0, 3, in);
+    return res;
+}
+
+JNIEXPORT jobject JNICALL Java_org_rosuda_JRI_Rengine_rniGetDataFrame
+(JNIEnv *env, jobject this, jlong exp)
+{
+    return exp ? jri_putDataFrame(env, L2SEXP(exp)) : 0;
+}
+
+JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniPutDataFrame
+(JNIEnv *env, jobject this, jint nrow, jobjectArray names, jintArray types, jobjectArray data, jobjectArray extra, jobjectArray rowNames)
+{
+    return SEXP2L(jri_getDataFrame(env, nrow, names, types, data, extra, rowNames));
+}
+
+JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniPutStringBlob
+(JNIEnv *env, jobject this, jbyteArray blob, jintArray offsets, jintArray index)
+{
+    return SEXP2L(jri_getStringBlob(env, blob, offsets, index));
+}
+
+JNIEXPORT jdoubleArray JNICALL Java_org_rosuda_JRI_Rengine_rniGetComplexArray
+(JNIEnv *env, jobject this, jlong exp)
+{
+    return jri_putComplexArray(env, L2SEXP(exp));
+}
+
+JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniPutComplexArray
+(JNIEnv *env, jobject this, jdoubleArray a)
+{
+    return SEXP2L(jri_getComplexArray(env, a));
+}
+
 JNIEXPORT jboolean JNICALL Java_org_rosuda_JRI_Rengine_rniInherits
 (JNIEnv *env, jobject this, jlong exp, jstring s)
 {
@@ -490,6 +1075,13 @@ JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniCAR
     return 0;
 }
 
+JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniSetCAR
+(JNIEnv *env, jobject this, jlong exp, jlong val)
+{
+    if (exp)
+        SETCAR(L2SEXP(exp), val ? L2SEXP(val) : R_NilValue);
+}
+
 JNIEXPORT jlong JNICALL Java_org_rosuda_JRI_Rengine_rniCDR
 (JNIEnv *env, jobject this, jlong exp)
 {
@@ -649,13 +1241,15 @@ JNIEXPORT void JNICALL Java_org_rosuda_JRI_Rengine_rniPrint
 JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniStop
 (JNIEnv *env, jobject this, jint flag) {
 #ifdef Win32
-    UserBreak=1;
+    UserBreak = (flag == 3) ? 0 : 1;
 #else
-    /* there are three choices now:
+    /* there are four choices now:
        0 = cooperative (requires external interrupt of ReadConsole!)
        1 = SIGINT for compatibility with old rniStop()
-       2 = R's onintr but that one works *only* if used on the R thread (which renders is essentially useless unless used in some synchronous interrupt handler). */
+       2 = R's onintr but that one works *only* if used on the R thread (which renders is essentially useless unless used in some synchronous interrupt handler).
+       3 = withdraw a cooperative interrupt that was not processed yet */
     if (flag == 0) R_interrupts_pending = 1;
+    else if (flag == 3) R_interrupts_pending = 0;
     else if (flag == 1)  kill(getpid(), SIGINT);
     else Rf_onintr();
 #endif
@@ -663,3 +1257,75 @@ JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniStop
 }
 
 
+/* RSession exposes the same rni methods as Rengine, but without the synchronized modifier.
+   None of the implementations above use their "this" argument, so instead of duplicating
+   them we simply bind the native methods of RSession to the Rengine implementations. */
+static JNINativeMethod sessionMethods[] = {
+    { "rniParse",          "(Ljava/lang/String;I)J",  (void*) Java_org_rosuda_JRI_Rengine_rniParse },
+    { "rniEval",           "(JJ)J",                   (void*) Java_org_rosuda_JRI_Rengine_rniEval },
+    { "rniCall",           "(Ljava/lang/String;J[Ljava/lang/Object;[Ljava/lang/String;J)J", (void*) Java_org_rosuda_JRI_Rengine_rniCall },
+    { "rniProtect",        "(J)V",                    (void*) Java_org_rosuda_JRI_Rengine_rniProtect },
+    { "rniUnprotect",      "(I)V",                    (void*) Java_org_rosuda_JRI_Rengine_rniUnprotect },
+    { "rniGetString",      "(J)Ljava/lang/String;",   (void*) Java_org_rosuda_JRI_Rengine_rniGetString },
+    { "rniGetStringArray", "(J)[Ljava/lang/String;",  (void*) Java_org_rosuda_JRI_Rengine_rniGetStringArray },
+    { "rniGetIntArray",    "(J)[I",                   (void*) Java_org_rosuda_JRI_Rengine_rniGetIntArray },
+    { "rniGetBoolArrayI",  "(J)[I",                   (void*) Java_org_rosuda_JRI_Rengine_rniGetBoolArrayI },
+    { "rniGetDoubleArray", "(J)[D",                   (void*) Java_org_rosuda_JRI_Rengine_rniGetDoubleArray },
+    { "rniGetRawArray",    "(J)[B",                   (void*) Java_org_rosuda_JRI_Rengine_rniGetRawArray },
+    { "rniGetVector",      "(J)[J",                   (void*) Java_org_rosuda_JRI_Rengine_rniGetVector },
+    { "rniGetDataBuffer",  "(J)Ljava/nio/ByteBuffer;", (void*) Java_org_rosuda_JRI_Rengine_rniGetDataBuffer },
+    { "rniGetLength",      "(J)J",                    (void*) Java_org_rosuda_JRI_Rengine_rniGetLength },
+    { "rniGetDoubleRegion", "(JJI[DI)I",              (void*) Java_org_rosuda_JRI_Rengine_rniGetDoubleRegion },
+    { "rniGetIntRegion",   "(JJI[II)I",               (void*) Java_org_rosuda_JRI_Rengine_rniGetIntRegion },
+    { "rniGetBoolRegionI", "(JJI[II)I",               (void*) Java_org_rosuda_JRI_Rengine_rniGetBoolRegionI },
+    { "rniGetRawRegion",   "(JJI[BI)I",               (void*) Java_org_rosuda_JRI_Rengine_rniGetRawRegion },
+    { "rniAllocVector",    "(IJ)J",                   (void*) Java_org_rosuda_JRI_Rengine_rniAllocVector },
+    { "rniSetDoubleRegion", "(JJ[DII)I",              (void*) Java_org_rosuda_JRI_Rengine_rniSetDoubleRegion },
+    { "rniSetIntRegion",   "(JJ[III)I",               (void*) Java_org_rosuda_JRI_Rengine_rniSetIntRegion },
+    { "rniSetBoolRegionI", "(JJ[III)I",               (void*) Java_org_rosuda_JRI_Rengine_rniSetBoolRegionI },
+    { "rniSetRawRegion",   "(JJ[BII)I",               (void*) Java_org_rosuda_JRI_Rengine_rniSetRawRegion },
+    { "rniSetBufferRegion", "(JJLjava/nio/ByteBuffer;II)I", (void*) Java_org_rosuda_JRI_Rengine_rniSetBufferRegion },
+    { "rniGetDim",         "(J)[I",                   (void*) Java_org_rosuda_JRI_Rengine_rniGetDim },
+    { "rniGetDoubleMatrix", "(J[I)[D",                (void*) Java_org_rosuda_JRI_Rengine_rniGetDoubleMatrix },
+    { "rniGetComplexArray", "(J)[D",                  (void*) Java_org_rosuda_JRI_Rengine_rniGetComplexArray },
+    { "rniPutComplexArray", "([D)J",                  (void*) Java_org_rosuda_JRI_Rengine_rniPutComplexArray },
+    { "rniGetStringBlob",  "(J)Lorg/rosuda/JRI/RStringVector;", (void*) Java_org_rosuda_JRI_Rengine_rniGetStringBlob },
+    { "rniPutStringBlob",  "([B[I[I)J",               (void*) Java_org_rosuda_JRI_Rengine_rniPutStringBlob },
+    { "rniDescribe",       "(J[I)[Ljava/lang/Object;", (void*) Java_org_rosuda_JRI_Rengine_rniDescribe },
+    { "rniGetDataFrame",   "(J)Lorg/rosuda/JRI/RDataFrame;", (void*) Java_org_rosuda_JRI_Rengine_rniGetDataFrame },
+    { "rniPutDataFrame",   "(I[Ljava/lang/String;[I[Ljava/lang/Object;[Ljava/lang/Object;[Ljava/lang/String;)J", (void*) Java_org_rosuda_JRI_Rengine_rniPutDataFrame },
+    { "rniPutString",      "(Ljava/lang/String;)J",   (void*) Java_org_rosuda_JRI_Rengine_rniPutString },
+    { "rniPutStringArray", "([Ljava/lang/String;)J",  (void*) Java_org_rosuda_JRI_Rengine_rniPutStringArray },
+    { "rniPutIntArray",    "([I)J",                   (void*) Java_org_rosuda_JRI_Rengine_rniPutIntArray },
+    { "rniPutBoolArrayI",  "([I)J",                   (void*) Java_org_rosuda_JRI_Rengine_rniPutBoolArrayI },
+    { "rniPutBoolArray",   "([Z)J",                   (void*) Java_org_rosuda_JRI_Rengine_rniPutBoolArray },
+    { "rniPutDoubleArray", "([D)J",                   (void*) Java_org_rosuda_JRI_Rengine_rniPutDoubleArray },
+    { "rniPutRawArray",    "([B)J",                   (void*) Java_org_rosuda_JRI_Rengine_rniPutRawArray },
+    { "rniPutVector",      "([J)J",                   (void*) Java_org_rosuda_JRI_Rengine_rniPutVector },
+    { "rniGetAttr",        "(JLjava/lang/String;)J",  (void*) Java_org_rosuda_JRI_Rengine_rniGetAttr },
+    { "rniSetAttr",        "(JLjava/lang/String;J)V", (void*) Java_org_rosuda_JRI_Rengine_rniSetAttr },
+    { "rniInherits",       "(JLjava/lang/String;)Z",  (void*) Java_org_rosuda_JRI_Rengine_rniInherits },
+    { "rniCons",           "(JJJZ)J",                 (void*) Java_org_rosuda_JRI_Rengine_rniCons },
+    { "rniCAR",            "(J)J",                    (void*) Java_org_rosuda_JRI_Rengine_rniCAR },
+    { "rniSetCAR",         "(JJ)V",                   (void*) Java_org_rosuda_JRI_Rengine_rniSetCAR },
+    { "rniCDR",            "(J)J",                    (void*) Java_org_rosuda_JRI_Rengine_rniCDR },
+    { "rniTAG",            "(J)J",                    (void*) Java_org_rosuda_JRI_Rengine_rniTAG },
+    { "rniPutList",        "([J)J",                   (void*) Java_org_rosuda_JRI_Rengine_rniPutList },
+    { "rniGetList",        "(J)[J",                   (void*) Java_org_rosuda_JRI_Rengine_rniGetList },
+    { "rniGetSymbolName",  "(J)Ljava/lang/String;",   (void*) Java_org_rosuda_JRI_Rengine_rniGetSymbolName },
+    { "rniInstallSymbol",  "(Ljava/lang/String;)J",   (void*) Java_org_rosuda_JRI_Rengine_rniInstallSymbol },
+    { "rniPreserve",       "(J)V",                    (void*) Java_org_rosuda_JRI_Rengine_rniPreserve },
+    { "rniReleaseAll",     "([JI)V",                  (void*) Java_org_rosuda_JRI_Rengine_rniReleaseAll },
+    { "rniRelease",        "(J)V",                    (void*) Java_org_rosuda_JRI_Rengine_rniRelease },
+    { "rniFindVar",        "(Ljava/lang/String;J)J",  (void*) Java_org_rosuda_JRI_Rengine_rniFindVar },
+    { "rniSpecialObject",  "(I)J",                    (void*) Java_org_rosuda_JRI_Rengine_rniSpecialObject },
+    { "rniJavaToXref",     "(Ljava/lang/Object;)J",   (void*) Java_org_rosuda_JRI_Rengine_rniJavaToXref },
+    { "rniXrefToJava",     "(J)Ljava/lang/Object;",   (void*) Java_org_rosuda_JRI_Rengine_rniXrefToJava },
+    { "rniAssign",         "(Ljava/lang/String;JJ)Z", (void*) Java_org_rosuda_JRI_Rengine_rniAssign },
+    { "rniExpType",        "(J)I",                    (void*) Java_org_rosuda_JRI_Rengine_rniExpType }
+};
+
+JNIEXPORT jint JNICALL Java_org_rosuda_JRI_Rengine_rniRegisterSession
+(JNIEnv *env, jclass this, jclass cls) {
+    return (*env)->RegisterNatives(env, cls, sessionMethods, sizeof(sessionMethods) / sizeof(sessionMethods[0]));
+}
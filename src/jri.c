@@ -66,46 +66,177 @@ jstring jri_putString(JNIEnv *env, SEXP e, int ix) {
 }
 
 
+static jclass globalClass(JNIEnv *env, const char *name);
+
+/* RComplexNumber class and constructor, obtained on first use */
+static jclass clsComplexNumber;
+static jmethodID midComplexNumber;
+
 jobjectArray jri_putComplexNumberArray(JNIEnv *env, SEXP exp)
 {
+    int i, len;
+    Rcomplex *current;
+    jobjectArray nums;
+
     if(TYPEOF(exp) != CPLXSXP)
         return 0;
-    
-    int len = LENGTH(exp);
-    Rcomplex *current = COMPLEX(exp);
-    jclass cls = (*env)->FindClass(env, "org/rosuda/JRI/RComplexNumber");
-    jobjectArray nums = (*env)->NewObjectArray(env, len, cls, 0);
-    jmethodID constructor = (*env)->GetMethodID(env, cls, "<init>", "(DD)V");
-    
-    
-    for(int i = 0; i < len; i++)
+    if (!clsComplexNumber) {
+        jclass cls = globalClass(env, "org/rosuda/JRI/RComplexNumber");
+        if (!cls || !(midComplexNumber = (*env)->GetMethodID(env, cls, "<init>", "(DD)V"))) {
+            jri_error("jri_putComplexNumberArray: unable to find RComplexNumber");
+            return 0;
+        }
+        clsComplexNumber = cls;
+    }
+
+    len = LENGTH(exp);
+    current = COMPLEX(exp);
+    nums = (*env)->NewObjectArray(env, len, clsComplexNumber, 0);
+    if (!nums) return 0;
+
+    for(i = 0; i < len; i++)
     {
-        jobject num = (*env)->NewObject(env, cls, constructor, current->i, current->r);
+        /* RComplexNumber(multiplier, remainder) = remainder + multiplier i */
+        jobject num = (*env)->NewObject(env, clsComplexNumber, midComplexNumber, current->i, current->r);
         (*env)->SetObjectArrayElement(env, nums, i, num);
+        (*env)->DeleteLocalRef(env, num);
         current++;
     }
     
     return nums;
 }
 
+/* complex vector as an array of interleaved real and imaginary parts */
+jarray jri_putComplexArray(JNIEnv *env, SEXP e)
+{
+    jdoubleArray da;
+    R_xlen_t len;
+    if (TYPEOF(e) != CPLXSXP) return 0;
+    len = XLENGTH(e);
+    if (len > 0x3fffffff) {
+	jri_error("jri_putComplexArray: vector is too long");
+	return 0;
+    }
+    da = (*env)->NewDoubleArray(env, (jsize) (len * 2));
+    if (!da) {
+	jri_error("newDoubleArray.new(%d) failed", (int) (len * 2));
+	return 0;
+    }
+    /* Rcomplex is a struct of two doubles (r, i), so the data is already interleaved */
+    if (len > 0)
+	(*env)->SetDoubleArrayRegion(env, da, 0, (jsize) (len * 2), (jdouble*) COMPLEX(e));
+    return da;
+}
+
+static jclass clsStringElt;
+
 jarray jri_putStringArray(JNIEnv *env, SEXP e)
 {
     if (TYPEOF(e) != STRSXP) return 0;
+    if (!clsStringElt && !(clsStringElt = globalClass(env, "java/lang/String"))) return 0;
     {
         int j = 0;
-        jobjectArray sa = (*env)->NewObjectArray(env, LENGTH(e), (*env)->FindClass(env, "java/lang/String"), 0);
+        jobjectArray sa = (*env)->NewObjectArray(env, LENGTH(e), clsStringElt, 0);
         if (!sa) { jri_error("Unable to create string array."); return 0; }
         while (j < LENGTH(e)) {
 	    SEXP elt = STRING_ELT(e, j);
 	    jobject s = (elt == R_NaString) ? 0 : (*env)->NewStringUTF(env, CHAR_UTF8(STRING_ELT(e,j)));
             _dbg(if (s) rjprintf (" [%d] \"%s\"\n",j,CHAR_UTF8(STRING_ELT(e,j))); else rjprintf(" [%d] NA\n", j));
             (*env)->SetObjectArrayElement(env, sa, j, s);
+            if (s) (*env)->DeleteLocalRef(env, s);
             j++;
         }
         return sa;
     }
 }
 
+/* RStringVector class and constructor, obtained on first use */
+static jclass clsStringVector;
+static jmethodID midStringVector;
+
+/* character vector as RStringVector: UTF-8 encoded unique strings in one blob, offsets of the unique
+   strings and the index of the unique string for each element (-1 for NA). Strings are unique by
+   CHARSXP - R caches CHARSXPs globally, so equal strings are (almost always) the same CHARSXP */
+jobject jri_putStringBlob(JNIEnv *env, SEXP e)
+{
+    int n, i, nu = 0, hsize = 16, mask, *hval, *index, *offs;
+    SEXP *hkey;
+    const char **ustr;
+    jlong total = 0;
+    jbyteArray blob = 0;
+    jintArray joffs = 0, jindex = 0;
+    jobject res = 0;
+    const void *vmax;
+
+    if (TYPEOF(e) != STRSXP) return 0;
+    if (!midStringVector) {
+	if (!clsStringVector) clsStringVector = globalClass(env, "org/rosuda/JRI/RStringVector");
+	if (!clsStringVector || !(midStringVector = (*env)->GetMethodID(env, clsStringVector, "<init>", "([B[I[I)V"))) {
+	    jri_error("jri_putStringBlob: unable to find RStringVector");
+	    return 0;
+	}
+    }
+    n = LENGTH(e);
+    while (hsize < n * 2) hsize <<= 1;
+    mask = hsize - 1;
+    hkey = (SEXP*) calloc(hsize, sizeof(SEXP));
+    hval = (int*) malloc(sizeof(int) * hsize);
+    ustr = (const char**) malloc(sizeof(char*) * (n + 1));
+    index = (int*) malloc(sizeof(int) * (n + 1));
+    offs = (int*) malloc(sizeof(int) * (n + 2));
+    if (!hkey || !hval || !ustr || !index || !offs) {
+	jri_error("jri_putStringBlob: out of memory");
+	goto done;
+    }
+    vmax = vmaxget(); /* re-encoding may allocate */
+    for (i = 0; i < n; i++) {
+	SEXP c = STRING_ELT(e, i);
+	unsigned long h;
+	if (c == R_NaString) { index[i] = -1; continue; }
+	h = (((unsigned long) (size_t) c) >> 3) & mask;
+	while (hkey[h] && hkey[h] != c) h = (h + 1) & mask;
+	if (!hkey[h]) {
+	    hkey[h] = c;
+	    hval[h] = nu;
+	    ustr[nu] = CHAR_UTF8(c);
+	    offs[nu] = (int) total;
+	    total += strlen(ustr[nu]);
+	    if (total > 0x7fffffff) {
+		vmaxset(vmax);
+		jri_error("jri_putStringBlob: strings are too long");
+		goto done;
+	    }
+	    nu++;
+	}
+	index[i] = hval[h];
+    }
+    offs[nu] = (int) total;
+    blob = (*env)->NewByteArray(env, (jsize) total);
+    joffs = (*env)->NewIntArray(env, nu + 1);
+    jindex = (*env)->NewIntArray(env, n);
+    if (blob && joffs && jindex) {
+	if (total > 0) {
+	    jbyte *b = (*env)->GetByteArrayElements(env, blob, 0);
+	    if (b) {
+		for (i = 0; i < nu; i++)
+		    memcpy(b + offs[i], ustr[i], offs[i + 1] - offs[i]);
+		(*env)->ReleaseByteArrayElements(env, blob, b, 0);
+	    }
+	}
+	(*env)->SetIntArrayRegion(env, joffs, 0, nu + 1, (jint*) offs);
+	if (n > 0) (*env)->SetIntArrayRegion(env, jindex, 0, n, (jint*) index);
+	res = (*env)->NewObject(env, clsStringVector, midStringVector, blob, joffs, jindex);
+    } else
+	jri_error("jri_putStringBlob: unable to allocate arrays");
+    vmaxset(vmax);
+ done:
+    if (blob) (*env)->DeleteLocalRef(env, blob);
+    if (joffs) (*env)->DeleteLocalRef(env, joffs);
+    if (jindex) (*env)->DeleteLocalRef(env, jindex);
+    free(hkey); free(hval); free((void*) ustr); free(index); free(offs);
+    return res;
+}
+
 jarray jri_putIntArray(JNIEnv *env, SEXP e)
 {
     if (TYPEOF(e)!=INTSXP) return 0;
@@ -314,6 +445,18 @@ jstring jri_callToString(JNIEnv *env, jobject o) {
 /* FIXME: this should never be used as 64-bit platforms can't stuff a
    pointer in any R type (save for raw which must be interpreted
    accordingly) */
+SEXP jri_getComplexArray(JNIEnv *env, jarray o) {
+  SEXP ar;
+  int l;
+
+  if (!o) return R_NilValue;
+  l = (int) (*env)->GetArrayLength(env, o) / 2;
+  ar = allocVector(CPLXSXP, l);
+  if (l > 0)
+    (*env)->GetDoubleArrayRegion(env, o, 0, l * 2, (jdouble*) COMPLEX(ar));
+  return ar;
+}
+
 SEXP jri_getObjectArray(JNIEnv *env, jarray o) {
   SEXP ar;
   int l,i;
@@ -336,6 +479,52 @@ SEXP jri_getObjectArray(JNIEnv *env, jarray o) {
   return ar;
 }
 
+/* builds a character vector from distinct UTF-8 strings in a blob (delimited by offsets) and the index
+   of the distinct string for each element (negative = NA). Each distinct string is converted once. */
+SEXP jri_getStringBlob(JNIEnv *env, jarray blob, jarray offsets, jarray index) {
+    SEXP u, ar;
+    int nu, n, bl, i;
+    jbyte *b = 0;
+    jint *off = 0, *ix = 0;
+
+    if (!blob || !offsets || !index) return R_NilValue;
+    bl = (int)(*env)->GetArrayLength(env, blob);
+    nu = (int)(*env)->GetArrayLength(env, offsets) - 1;
+    n = (int)(*env)->GetArrayLength(env, index);
+    if (nu < 0) return 0;
+    off = (*env)->GetIntArrayElements(env, offsets, 0);
+    ix = (*env)->GetIntArrayElements(env, index, 0);
+    if (bl > 0) b = (*env)->GetByteArrayElements(env, blob, 0);
+    if (!off || !ix || (bl > 0 && !b)) {
+	jri_error("jri_getStringBlob: unable to fetch arrays");
+	ar = 0;
+	goto done;
+    }
+    for (i = 0; i < nu; i++)
+	if (off[i] < 0 || off[i] > off[i + 1] || off[i + 1] > bl) {
+	    jri_error("jri_getStringBlob: invalid offsets");
+	    ar = 0;
+	    goto done;
+	}
+    PROTECT(u = allocVector(STRSXP, nu));
+    for (i = 0; i < nu; i++) {
+	const char *c = (const char*) b + off[i], *z;
+	int len = off[i + 1] - off[i];
+	/* R doesn't allow embedded NULs, so strings end at the first one as they would in C */
+	if (len > 0 && (z = (const char*) memchr(c, 0, len))) len = (int) (z - c);
+	SET_STRING_ELT(u, i, mkCharLenUTF8(c, len));
+    }
+    PROTECT(ar = allocVector(STRSXP, n));
+    for (i = 0; i < n; i++)
+	SET_STRING_ELT(ar, i, (ix[i] < 0 || ix[i] >= nu) ? R_NaString : STRING_ELT(u, ix[i]));
+    UNPROTECT(2);
+ done:
+    if (b) (*env)->ReleaseByteArrayElements(env, blob, b, JNI_ABORT);
+    if (off) (*env)->ReleaseIntArrayElements(env, offsets, off, JNI_ABORT);
+    if (ix) (*env)->ReleaseIntArrayElements(env, index, ix, JNI_ABORT);
+    return ar;
+}
+
 /** get contents of the object array in the form of int* */
 SEXP jri_getStringArray(JNIEnv *env, jarray o) {
     SEXP ar;
@@ -526,6 +715,682 @@ SEXP jri_getDoubleArray(JNIEnv *env, jarray o) {
   return ar;
 }
 
+/* classes and methods used by jri_getObject, obtained on first use */
+static int objCacheReady = 0;
+static jclass clsDouble, clsInteger, clsBoolean, clsString, clsREXP, clsComplexVector,
+    clsDoubleArray, clsIntArray, clsBoolArray, clsByteArray, clsStringArray, clsObjRBool, clsObjRFactor, clsObjRVector;
+static jmethodID midDoubleValue, midIntValue, midBooleanValue, midVectorSize, midVectorGet;
+static jfieldID fidXt, fidXp, fidCont, fidStrings, fidComplexData, fidSVBlob, fidSVOffsets, fidSVIndex,
+    fidBoolVal, fidFactorId, fidFactorN, fidFactorVal, fidFactorNlev, fidVectorNames;
+
+static jclass globalClass(JNIEnv *env, const char *name) {
+    jclass c = (*env)->FindClass(env, name), g;
+    if (!c) return 0;
+    g = (jclass) (*env)->NewGlobalRef(env, c);
+    (*env)->DeleteLocalRef(env, c);
+    return g;
+}
+
+static int initObjCache(JNIEnv *env) {
+    if (objCacheReady) return 1;
+    if (!(clsDouble = globalClass(env, "java/lang/Double")) ||
+	!(clsInteger = globalClass(env, "java/lang/Integer")) ||
+	!(clsBoolean = globalClass(env, "java/lang/Boolean")) ||
+	!(clsString = globalClass(env, "java/lang/String")) ||
+	!(clsREXP = globalClass(env, "org/rosuda/JRI/REXP")) ||
+	!(clsComplexVector = globalClass(env, "org/rosuda/JRI/RComplexVector")) ||
+	!(clsStringVector || (clsStringVector = globalClass(env, "org/rosuda/JRI/RStringVector"))) ||
+	!(clsDoubleArray = globalClass(env, "[D")) ||
+	!(clsIntArray = globalClass(env, "[I")) ||
+	!(clsBoolArray = globalClass(env, "[Z")) ||
+	!(clsByteArray = globalClass(env, "[B")) ||
+	!(clsStringArray = globalClass(env, "[Ljava/lang/String;")) ||
+	!(clsObjRBool = globalClass(env, "org/rosuda/JRI/RBool")) ||
+	!(clsObjRFactor = globalClass(env, "org/rosuda/JRI/RFactor")) ||
+	!(clsObjRVector = globalClass(env, "org/rosuda/JRI/RVector"))) {
+	jri_error("jri_getObject: unable to find classes");
+	return 0;
+    }
+    midDoubleValue = (*env)->GetMethodID(env, clsDouble, "doubleValue", "()D");
+    midIntValue = (*env)->GetMethodID(env, clsInteger, "intValue", "()I");
+    midBooleanValue = (*env)->GetMethodID(env, clsBoolean, "booleanValue", "()Z");
+    fidXt = (*env)->GetFieldID(env, clsREXP, "Xt", "I");
+    fidXp = (*env)->GetFieldID(env, clsREXP, "xp", "J");
+    fidCont = (*env)->GetFieldID(env, clsREXP, "cont", "Ljava/lang/Object;");
+    fidStrings = (*env)->GetFieldID(env, clsREXP, "strings", "Lorg/rosuda/JRI/RStringVector;");
+    fidComplexData = (*env)->GetFieldID(env, clsComplexVector, "data", "[D");
+    fidSVBlob = (*env)->GetFieldID(env, clsStringVector, "blob", "[B");
+    fidSVOffsets = (*env)->GetFieldID(env, clsStringVector, "offsets", "[I");
+    fidSVIndex = (*env)->GetFieldID(env, clsStringVector, "index", "[I");
+    fidBoolVal = (*env)->GetFieldID(env, clsObjRBool, "val", "I");
+    fidFactorId = (*env)->GetFieldID(env, clsObjRFactor, "id", "[I");
+    fidFactorN = (*env)->GetFieldID(env, clsObjRFactor, "n", "I");
+    fidFactorVal = (*env)->GetFieldID(env, clsObjRFactor, "val", "[Ljava/lang/String;");
+    fidFactorNlev = (*env)->GetFieldID(env, clsObjRFactor, "nlev", "I");
+    fidVectorNames = (*env)->GetFieldID(env, clsObjRVector, "names", "[Ljava/lang/String;");
+    midVectorSize = (*env)->GetMethodID(env, clsObjRVector, "size", "()I");
+    midVectorGet = (*env)->GetMethodID(env, clsObjRVector, "get", "(I)Ljava/lang/Object;");
+    if (!midDoubleValue || !midIntValue || !midBooleanValue || !fidXt || !fidXp || !fidCont || !fidStrings || !fidComplexData ||
+	!fidSVBlob || !fidSVOffsets || !fidSVIndex || !fidBoolVal || !fidFactorId || !fidFactorN || !fidFactorVal ||
+	!fidFactorNlev || !fidVectorNames || !midVectorSize || !midVectorGet) {
+	jri_error("jri_getObject: unable to find methods/fields");
+	return 0;
+    }
+    objCacheReady = 1;
+    return 1;
+}
+
+/* creates a factor from the content of an RFactor, 0 if the codes are not valid */
+static SEXP getFactor(JNIEnv *env, jobject f) {
+    jint n = (*env)->GetIntField(env, f, fidFactorN), nlev = (*env)->GetIntField(env, f, fidFactorNlev);
+    jobject ida = (*env)->GetObjectField(env, f, fidFactorId), vala = (*env)->GetObjectField(env, f, fidFactorVal);
+    SEXP r = 0, lev;
+    if (ida && vala && n >= 0 && n <= (*env)->GetArrayLength(env, (jarray) ida) && nlev <= (*env)->GetArrayLength(env, (jarray) vala)) {
+	int i, *c;
+	PROTECT(r = allocVector(INTSXP, n));
+	c = INTEGER(r);
+	(*env)->GetIntArrayRegion(env, (jintArray) ida, 0, n, (jint*) c);
+	for (i = 0; i < n; i++)
+	    if (c[i] != NA_INTEGER) {
+		if (c[i] < 0 || c[i] >= nlev) break;
+		c[i]++; /* R codes are 1-based */
+	    }
+	if (i < n) {
+	    jri_error("jri_getObject: factor code out of range");
+	    UNPROTECT(1);
+	    r = 0;
+	} else {
+	    PROTECT(lev = allocVector(STRSXP, nlev));
+	    for (i = 0; i < nlev; i++) {
+		jstring s = (jstring) (*env)->GetObjectArrayElement(env, (jobjectArray) vala, i);
+		const char *cs = s ? (*env)->GetStringUTFChars(env, s, 0) : 0;
+		SET_STRING_ELT(lev, i, cs ? mkCharUTF8(cs) : R_NaString);
+		if (cs) (*env)->ReleaseStringUTFChars(env, s, cs);
+		if (s) (*env)->DeleteLocalRef(env, s);
+	    }
+	    setAttrib(r, R_LevelsSymbol, lev);
+	    setAttrib(r, R_ClassSymbol, mkString("factor"));
+	    UNPROTECT(2);
+	}
+    }
+    if (ida) (*env)->DeleteLocalRef(env, ida);
+    if (vala) (*env)->DeleteLocalRef(env, vala);
+    return r;
+}
+
+/* creates a generic vector from an RVector of REXPs, 0 if any element cannot be converted */
+static SEXP getVector(JNIEnv *env, jobject v) {
+    jint i, n = (*env)->CallIntMethod(env, v, midVectorSize);
+    jobject nam;
+    SEXP r;
+    PROTECT(r = allocVector(VECSXP, n));
+    for (i = 0; i < n; i++) {
+	jobject el = (*env)->CallObjectMethod(env, v, midVectorGet, i);
+	SEXP e = jri_getObject(env, el);
+	if (el) (*env)->DeleteLocalRef(env, el);
+	if (!e) {
+	    UNPROTECT(1);
+	    return 0;
+	}
+	SET_VECTOR_ELT(r, i, e);
+    }
+    nam = (*env)->GetObjectField(env, v, fidVectorNames);
+    if (nam) {
+	if ((*env)->GetArrayLength(env, (jarray) nam) == n)
+	    setAttrib(r, R_NamesSymbol, jri_getStringArray(env, (jarray) nam));
+	(*env)->DeleteLocalRef(env, nam);
+    }
+    UNPROTECT(1);
+    return r;
+}
+
+/** convert a Java object to an R object. Supported are null (NULL), Double, Integer, Boolean, String,
+    double[], int[], boolean[], byte[], String[], RComplexVector, RStringVector and REXP. References are used as-is,
+    otherwise the content is converted: scalars and vectors of the basic types, RBool, RFactor and generic vectors
+    (RVector, whose elements are converted recursively). REXPs holding lists, language objects or complex numbers
+    are not supported.
+    @return R object (not protected) or 0 if the object cannot be converted */
+SEXP jri_getObject(JNIEnv *env, jobject o) {
+    if (!o) return R_NilValue;
+    if (!initObjCache(env)) return 0;
+    if ((*env)->IsInstanceOf(env, o, clsDouble))
+	return ScalarReal((*env)->CallDoubleMethod(env, o, midDoubleValue));
+    if ((*env)->IsInstanceOf(env, o, clsInteger))
+	return ScalarInteger((*env)->CallIntMethod(env, o, midIntValue));
+    if ((*env)->IsInstanceOf(env, o, clsBoolean))
+	return ScalarLogical((*env)->CallBooleanMethod(env, o, midBooleanValue) ? 1 : 0);
+    if ((*env)->IsInstanceOf(env, o, clsString))
+	return jri_getString(env, (jstring) o);
+    if ((*env)->IsInstanceOf(env, o, clsDoubleArray))
+	return jri_getDoubleArray(env, (jarray) o);
+    if ((*env)->IsInstanceOf(env, o, clsIntArray))
+	return jri_getIntArray(env, (jarray) o);
+    if ((*env)->IsInstanceOf(env, o, clsBoolArray))
+	return jri_getBoolArray(env, (jarray) o);
+    if ((*env)->IsInstanceOf(env, o, clsByteArray))
+	return jri_getByteArray(env, (jarray) o);
+    if ((*env)->IsInstanceOf(env, o, clsStringArray))
+	return jri_getStringArray(env, (jarray) o);
+    if ((*env)->IsInstanceOf(env, o, clsComplexVector)) {
+	jobject d = (*env)->GetObjectField(env, o, fidComplexData);
+	SEXP r = jri_getComplexArray(env, (jarray) d);
+	(*env)->DeleteLocalRef(env, d);
+	return r;
+    }
+    if ((*env)->IsInstanceOf(env, o, clsStringVector)) {
+	jobject b = (*env)->GetObjectField(env, o, fidSVBlob),
+	    of = (*env)->GetObjectField(env, o, fidSVOffsets),
+	    ix = (*env)->GetObjectField(env, o, fidSVIndex);
+	SEXP r = jri_getStringBlob(env, (jarray) b, (jarray) of, (jarray) ix);
+	(*env)->DeleteLocalRef(env, b);
+	(*env)->DeleteLocalRef(env, of);
+	(*env)->DeleteLocalRef(env, ix);
+	return r;
+    }
+    if ((*env)->IsInstanceOf(env, o, clsREXP)) {
+	jint xt = (*env)->GetIntField(env, o, fidXt);
+	SEXP r;
+	jobject c;
+	if (xt == XT_NONE) { /* reference */
+	    jlong xp = (*env)->GetLongField(env, o, fidXp);
+	    return xp ? L2SEXP(xp) : R_NilValue;
+	}
+	if (xt == XT_NULL) return R_NilValue;
+	if (xt == XT_STR || xt == XT_ARRAY_STR) { /* character vectors from R may not be decoded yet */
+	    c = (*env)->GetObjectField(env, o, fidStrings);
+	    if (c) {
+		r = jri_getObject(env, c);
+		(*env)->DeleteLocalRef(env, c);
+		return r;
+	    }
+	}
+	c = (*env)->GetObjectField(env, o, fidCont);
+	if (!c) return 0;
+	/* XT_ARRAY_BOOL_INT holds logicals as int[], everything else is determined by the content */
+	switch (xt) {
+	case XT_ARRAY_BOOL_INT: r = jri_getBoolArrayI(env, (jarray) c); break;
+	case XT_BOOL: {
+	    jint v = (*env)->GetIntField(env, c, fidBoolVal);
+	    r = ScalarLogical((v == 2) ? NA_LOGICAL : v);
+	    break;
+	}
+	case XT_FACTOR: r = (*env)->IsInstanceOf(env, c, clsObjRFactor) ? getFactor(env, c) : 0; break;
+	case XT_VECTOR: r = (*env)->IsInstanceOf(env, c, clsObjRVector) ? getVector(env, c) : 0; break;
+	case XT_LIST: case XT_LANG: case XT_COMPLEX: case XT_ARRAY_COMPLEX: r = 0; break;
+	default: r = (*env)->IsInstanceOf(env, c, clsREXP) ? 0 : jri_getObject(env, c);
+	}
+	(*env)->DeleteLocalRef(env, c);
+	return r;
+    }
+    return 0;
+}
+
+static jclass clsObject;
+
+/* describes an R object and fetches its content in one go (see rniDescribe):
+   info[0] = type, info[1] = length (-1 if it doesn't fit in an int), info[2] = flags (DESC_xxx)
+   result: { payload, class, names, levels, dim } where payload depends on the type, the attributes are
+   String[] (or null if absent or not character vectors) and dim is int[] (or null) */
+jobjectArray jri_describe(JNIEnv *env, SEXP e, jint *info)
+{
+    jobject p[5] = { 0, 0, 0, 0, 0 };
+    jobjectArray res;
+    SEXP a;
+    int i, t = TYPEOF(e), flags = 0;
+
+    if (!clsObject && !(clsObject = globalClass(env, "java/lang/Object"))) return 0;
+    PROTECT(e); /* UTF-8 translation of strings allocates */
+    info[0] = t;
+    if (isVector(e))
+	info[1] = (XLENGTH(e) > 0x7fffffff) ? -1 : (jint) XLENGTH(e);
+    else
+	info[1] = length(e);
+    a = getAttrib(e, R_DimSymbol);
+    if (a != R_NilValue) {
+	flags |= 1;
+	if (TYPEOF(a) == INTSXP) p[4] = jri_putIntArray(env, a);
+    }
+    if (t != LISTSXP && t != LANGSXP) { /* getAttrib would construct names from the tags */
+	a = getAttrib(e, R_NamesSymbol);
+	if (a != R_NilValue) {
+	    flags |= 2;
+	    if (TYPEOF(a) == STRSXP) p[2] = jri_putStringArray(env, a);
+	}
+    }
+    a = getAttrib(e, R_LevelsSymbol);
+    if (a != R_NilValue) {
+	flags |= 4;
+	if (TYPEOF(a) == STRSXP) p[3] = jri_putStringArray(env, a);
+    }
+    a = getAttrib(e, R_ClassSymbol);
+    if (TYPEOF(a) == STRSXP) p[1] = jri_putStringArray(env, a);
+    if (inherits(e, "factor")) flags |= 8;
+    info[2] = flags;
+
+    switch (t) {
+    case STRSXP: p[0] = jri_putStringBlob(env, e); break;
+    case INTSXP: p[0] = jri_putIntArray(env, e); break;
+    case REALSXP: p[0] = jri_putDoubleArray(env, e); break;
+    case LGLSXP: p[0] = jri_putBoolArrayI(env, e); break;
+    case CPLXSXP: p[0] = jri_putComplexArray(env, e); break;
+    case VECSXP: p[0] = jri_putSEXPLArray(env, e); break;
+    case SYMSXP: p[0] = jri_putSymbolName(env, e); break;
+    case LISTSXP: {
+	jlong l[3];
+	l[0] = (CAR(e) == R_NilValue) ? 0 : SEXP2L(CAR(e));
+	l[1] = (TYPEOF(CDR(e)) != LISTSXP) ? 0 : SEXP2L(CDR(e));
+	l[2] = (TAG(e) == R_NilValue) ? 0 : SEXP2L(TAG(e));
+	p[0] = (*env)->NewLongArray(env, 3);
+	if (p[0]) (*env)->SetLongArrayRegion(env, (jlongArray) p[0], 0, 3, l);
+	break;
+    }
+    }
+    UNPROTECT(1);
+
+    res = (*env)->NewObjectArray(env, 5, clsObject, 0);
+    for (i = 0; i < 5; i++)
+	if (p[i]) {
+	    if (res) (*env)->SetObjectArrayElement(env, res, i, p[i]);
+	    (*env)->DeleteLocalRef(env, p[i]);
+	}
+    return res;
+}
+
+/* classes and methods used by jri_convertTree, obtained on first use */
+static int treeCacheReady = 0;
+static jclass clsTreeREXP, clsRVector, clsRList, clsRFactor;
+static jmethodID midTreeREXP, midLazyREXP, midTreeKeepFrame, midRVector, midAddElement, midSetNames, midRList, midRFactor;
+static jfieldID fidTreeDim;
+
+static int initTreeCache(JNIEnv *env) {
+    if (treeCacheReady) return 1;
+    if (!(clsTreeREXP = globalClass(env, "org/rosuda/JRI/REXP")) ||
+	!(clsRVector = globalClass(env, "org/rosuda/JRI/RVector")) ||
+	!(clsRList = globalClass(env, "org/rosuda/JRI/RList")) ||
+	!(clsRFactor = globalClass(env, "org/rosuda/JRI/RFactor"))) {
+	jri_error("jri_convertTree: unable to find classes");
+	return 0;
+    }
+    midTreeREXP = (*env)->GetMethodID(env, clsTreeREXP, "<init>", "(Lorg/rosuda/JRI/Rengine;JIILjava/lang/Object;)V");
+    midLazyREXP = (*env)->GetMethodID(env, clsTreeREXP, "<init>", "(Lorg/rosuda/JRI/Rengine;JZZ)V");
+    midTreeKeepFrame = (*env)->GetMethodID(env, clsTreeREXP, "keepFrame", "()V");
+    midRVector = (*env)->GetMethodID(env, clsRVector, "<init>", "()V");
+    midAddElement = (*env)->GetMethodID(env, clsRVector, "addElement", "(Ljava/lang/Object;)V");
+    midSetNames = (*env)->GetMethodID(env, clsRVector, "setNames", "([Ljava/lang/String;)V");
+    midRList = (*env)->GetMethodID(env, clsRList, "<init>", "(Lorg/rosuda/JRI/REXP;Lorg/rosuda/JRI/REXP;Lorg/rosuda/JRI/REXP;)V");
+    midRFactor = (*env)->GetMethodID(env, clsRFactor, "<init>", "([I[Ljava/lang/String;I)V");
+    fidTreeDim = (*env)->GetFieldID(env, clsTreeREXP, "dim", "[I");
+    if (!midTreeREXP || !midLazyREXP || !midTreeKeepFrame || !midRVector || !midAddElement || !midSetNames || !midRList || !midRFactor || !fidTreeDim) {
+	jri_error("jri_convertTree: unable to find methods");
+	return 0;
+    }
+    treeCacheReady = 1;
+    return 1;
+}
+
+/* first element of an array (for length-1 vectors which are represented as scalars) */
+static jobject firstElement(JNIEnv *env, jobject a) {
+    jobject o = (*env)->GetObjectArrayElement(env, (jobjectArray) a, 0);
+    (*env)->DeleteLocalRef(env, a);
+    return o;
+}
+
+/* nesting limit of jri_convertTree to protect the C stack, deeper parts are converted lazily */
+#define MAX_TREE_DEPTH 1024
+
+/* converts one node. Children beyond the depth limit or the node budget become lazy REXPs. */
+static jobject convertNode(JNIEnv *env, jobject eng, SEXP e, int depth, int *budget)
+{
+    int t = TYPEOF(e), xt = XT_NULL;
+    jobject cont = 0, res;
+
+    if ((*env)->PushLocalFrame(env, 16) < 0) return 0;
+    if (depth <= 0 || *budget == 0) /* out of limits - convert later, on demand */
+	return (*env)->PopLocalFrame(env, (*env)->NewObject(env, clsTreeREXP, midLazyREXP, eng, SEXP2L(e), (jboolean) 1, (jboolean) 1));
+    if (*budget > 0) (*budget)--;
+
+    switch (t) {
+    case STRSXP: /* passed in compact form, REXP decodes the strings on first access */
+	cont = jri_putStringBlob(env, e);
+	xt = (LENGTH(e) == 1) ? XT_STR : XT_ARRAY_STR;
+	break;
+    case INTSXP:
+	cont = jri_putIntArray(env, e);
+	xt = XT_ARRAY_INT;
+	if (inherits(e, "factor")) {
+	    SEXP lev = getAttrib(e, R_LevelsSymbol);
+	    if (TYPEOF(lev) == STRSXP) {
+		cont = (*env)->NewObject(env, clsRFactor, midRFactor, cont, jri_putStringArray(env, lev), (jint) 1);
+		xt = XT_FACTOR;
+	    }
+	}
+	break;
+    case REALSXP:
+	cont = jri_putDoubleArray(env, e);
+	xt = XT_ARRAY_DOUBLE;
+	break;
+    case LGLSXP:
+	cont = jri_putBoolArrayI(env, e);
+	xt = XT_ARRAY_BOOL_INT;
+	break;
+    case CPLXSXP:
+	cont = jri_putComplexNumberArray(env, e);
+	if (cont && LENGTH(e) == 1) {
+	    cont = firstElement(env, cont);
+	    xt = XT_COMPLEX;
+	} else xt = XT_ARRAY_COMPLEX;
+	break;
+    case SYMSXP:
+	cont = jri_putSymbolName(env, e);
+	xt = XT_SYM;
+	break;
+    case VECSXP: {
+	int i, n = LENGTH(e);
+	SEXP nam = getAttrib(e, R_NamesSymbol);
+	cont = (*env)->NewObject(env, clsRVector, midRVector);
+	if (!cont) break;
+	for (i = 0; i < n; i++) {
+	    jobject el = convertNode(env, eng, VECTOR_ELT(e, i), depth - 1, budget);
+	    if ((*env)->ExceptionCheck(env)) return (*env)->PopLocalFrame(env, 0);
+	    (*env)->CallVoidMethod(env, cont, midAddElement, el);
+	    if (el) (*env)->DeleteLocalRef(env, el);
+	}
+	if (TYPEOF(nam) == STRSXP)
+	    (*env)->CallVoidMethod(env, cont, midSetNames, jri_putStringArray(env, nam));
+	xt = XT_VECTOR;
+	break;
+    }
+    case LISTSXP: {
+	/* walk the pairlist iteratively and build the chain of RLists from the end so that long
+	   pairlists don't use any C stack */
+	SEXP c = e;
+	int n = 0, i;
+	jobject tail = 0;
+	while (TYPEOF(c) == LISTSXP) { n++; c = CDR(c); }
+	{
+	    SEXP *cells = (SEXP*) malloc(sizeof(SEXP) * n);
+	    if (!cells) {
+		jri_error("jri_convertTree: out of memory");
+		break;
+	    }
+	    for (i = 0, c = e; i < n; i++, c = CDR(c)) cells[i] = c;
+	    for (i = n - 1; i >= 0; i--) {
+		jobject car, tag = 0, l, r;
+		c = cells[i];
+		car = (CAR(c) == R_NilValue) ?
+		    (*env)->NewObject(env, clsTreeREXP, midTreeREXP, eng, (jlong) 0, (jint) NILSXP, (jint) 0, (jobject) 0) :
+		    convertNode(env, eng, CAR(c), depth - 1, budget);
+		if (TAG(c) != R_NilValue)
+		    tag = convertNode(env, eng, TAG(c), depth - 1, budget);
+		if ((*env)->ExceptionCheck(env)) {
+		    free(cells);
+		    return (*env)->PopLocalFrame(env, 0);
+		}
+		l = (*env)->NewObject(env, clsRList, midRList, car, tag, tail);
+		if (car) (*env)->DeleteLocalRef(env, car);
+		if (tag) (*env)->DeleteLocalRef(env, tag);
+		if (tail) (*env)->DeleteLocalRef(env, tail);
+		if (i == 0) { /* the head cell is the node itself */
+		    cont = l;
+		    tail = 0;
+		    break;
+		}
+		r = (*env)->NewObject(env, clsTreeREXP, midTreeREXP, eng, SEXP2L(c), (jint) LISTSXP, (jint) XT_LIST, l);
+		(*env)->DeleteLocalRef(env, l);
+		tail = r;
+	    }
+	    free(cells);
+	}
+	xt = XT_LIST;
+	break;
+    }
+    }
+    res = (*env)->NewObject(env, clsTreeREXP, midTreeREXP, eng, SEXP2L(e), (jint) t, (jint) xt, cont);
+    if (res && t != LISTSXP) { /* keep the dimensions so matrices don't need to go back to R */
+	SEXP dim = getAttrib(e, R_DimSymbol);
+	if (TYPEOF(dim) == INTSXP)
+	    (*env)->SetObjectField(env, res, fidTreeDim, jri_putIntArray(env, dim));
+    }
+    if (res && t == VECSXP && inherits(e, "data.frame")) /* kept alive so that asDataFrame() can read it */
+	(*env)->CallVoidMethod(env, res, midTreeKeepFrame);
+    return (*env)->PopLocalFrame(env, res);
+}
+
+/* converts an R object with all its elements into a tree of REXPs in one pass (see rniConvertTree)
+   maxDepth - nesting levels to convert (<= 0 means up to MAX_TREE_DEPTH), maxNodes - number of objects to convert (< 0 unlimited)
+   parts beyond the limits are returned as lazy REXPs */
+jobject jri_convertTree(JNIEnv *env, jobject eng, SEXP e, int maxDepth, int maxNodes)
+{
+    jobject r;
+    if (!initTreeCache(env)) return 0;
+    /* the object is typically an unprotected result of an evaluation, but creating lazy REXPs (rniPreserve) and
+       UTF-8 translation of strings allocate in R */
+    PROTECT(e);
+    r = convertNode(env, eng, e, (maxDepth <= 0 || maxDepth > MAX_TREE_DEPTH) ? MAX_TREE_DEPTH : maxDepth, &maxNodes);
+    UNPROTECT(1);
+    if ((*env)->ExceptionCheck(env)) {
+	jri_checkExceptions(env, 1);
+	return 0;
+    }
+    return r;
+}
+
+/* column types of RDataFrame */
+#define DF_OTHER   0
+#define DF_DOUBLE  1
+#define DF_INTEGER 2
+#define DF_LOGICAL 3
+#define DF_STRING  4
+#define DF_FACTOR  5
+#define DF_DATE    6
+#define DF_POSIXCT 7
+
+static jclass clsDataFrame;
+static jmethodID midDataFrame;
+
+/* number of rows of a data frame - looks at the row.names attribute directly since getAttrib would expand the compact form */
+static int dataFrameRows(SEXP e, SEXP *rowNames) {
+    SEXP a, rn = R_NilValue;
+    for (a = ATTRIB(e); a != R_NilValue; a = CDR(a))
+	if (TAG(a) == R_RowNamesSymbol) { rn = CAR(a); break; }
+    *rowNames = (TYPEOF(rn) == STRSXP) ? rn : R_NilValue;
+    if (TYPEOF(rn) == INTSXP && LENGTH(rn) == 2 && INTEGER(rn)[0] == NA_INTEGER) /* compact c(NA, -n) */
+	return abs(INTEGER(rn)[1]);
+    if (rn != R_NilValue) return LENGTH(rn);
+    return (LENGTH(e) > 0) ? length(VECTOR_ELT(e, 0)) : 0;
+}
+
+/* converts a data.frame into an RDataFrame in one pass */
+jobject jri_putDataFrame(JNIEnv *env, SEXP e)
+{
+    int n, j, nrow;
+    SEXP rn, nam;
+    jintArray types;
+    jobjectArray data, extra;
+    jobject names = 0, rowNames = 0, res;
+    jint *tp;
+
+    if (TYPEOF(e) != VECSXP || !inherits(e, "data.frame")) return 0;
+    if (!clsObject && !(clsObject = globalClass(env, "java/lang/Object"))) return 0;
+    if (!midDataFrame) {
+	if (!clsDataFrame) clsDataFrame = globalClass(env, "org/rosuda/JRI/RDataFrame");
+	if (!clsDataFrame || !(midDataFrame = (*env)->GetMethodID(env, clsDataFrame, "<init>", "(I[Ljava/lang/String;[I[Ljava/lang/Object;[Ljava/lang/Object;[Ljava/lang/String;)V"))) {
+	    jri_error("jri_putDataFrame: unable to find RDataFrame");
+	    return 0;
+	}
+    }
+    n = LENGTH(e);
+    nrow = dataFrameRows(e, &rn);
+    if ((*env)->PushLocalFrame(env, 16) < 0) return 0;
+    types = (*env)->NewIntArray(env, n);
+    data = (*env)->NewObjectArray(env, n, clsObject, 0);
+    extra = (*env)->NewObjectArray(env, n, clsObject, 0);
+    if (!types || !data || !extra || !(tp = (*env)->GetIntArrayElements(env, types, 0)))
+	return (*env)->PopLocalFrame(env, 0);
+    for (j = 0; j < n; j++) {
+	SEXP c = VECTOR_ELT(e, j);
+	jobject d = 0, x = 0;
+	int t = DF_OTHER;
+	switch (TYPEOF(c)) {
+	case REALSXP:
+	    d = jri_putDoubleArray(env, c);
+	    if (inherits(c, "Date")) t = DF_DATE;
+	    else if (inherits(c, "POSIXct")) {
+		SEXP tz = getAttrib(c, install("tzone"));
+		t = DF_POSIXCT;
+		if (TYPEOF(tz) == STRSXP && LENGTH(tz) > 0 && *CHAR(STRING_ELT(tz, 0)))
+		    x = jri_putString(env, tz, 0);
+	    } else t = DF_DOUBLE;
+	    break;
+	case INTSXP:
+	    if (inherits(c, "factor")) {
+		SEXP lev = getAttrib(c, R_LevelsSymbol);
+		if (TYPEOF(lev) == STRSXP && (d = jri_putIntArray(env, c))) {
+		    /* R codes are 1-based */
+		    int i, l = LENGTH(c);
+		    jint *cp = (*env)->GetIntArrayElements(env, (jintArray) d, 0);
+		    if (cp) {
+			for (i = 0; i < l; i++) if (cp[i] != NA_INTEGER) cp[i]--;
+			(*env)->ReleaseIntArrayElements(env, (jintArray) d, cp, 0);
+		    }
+		    x = jri_putStringArray(env, lev);
+		    t = DF_FACTOR;
+		}
+	    } else if (inherits(c, "Date")) {
+		int i, l = LENGTH(c);
+		jdouble *dp;
+		d = (*env)->NewDoubleArray(env, l);
+		if (d && (dp = (*env)->GetDoubleArrayElements(env, (jdoubleArray) d, 0))) {
+		    for (i = 0; i < l; i++) dp[i] = (INTEGER(c)[i] == NA_INTEGER) ? R_NaReal : (jdouble) INTEGER(c)[i];
+		    (*env)->ReleaseDoubleArrayElements(env, (jdoubleArray) d, dp, 0);
+		}
+		t = DF_DATE;
+	    } else {
+		d = jri_putIntArray(env, c);
+		t = DF_INTEGER;
+	    }
+	    break;
+	case LGLSXP:
+	    d = jri_putBoolArrayI(env, c);
+	    t = DF_LOGICAL;
+	    break;
+	case STRSXP:
+	    d = jri_putStringBlob(env, c);
+	    t = DF_STRING;
+	    break;
+	}
+	if (!d) t = DF_OTHER;
+	tp[j] = t;
+	if (d) { (*env)->SetObjectArrayElement(env, data, j, d); (*env)->DeleteLocalRef(env, d); }
+	if (x) { (*env)->SetObjectArrayElement(env, extra, j, x); (*env)->DeleteLocalRef(env, x); }
+    }
+    (*env)->ReleaseIntArrayElements(env, types, tp, 0);
+    nam = getAttrib(e, R_NamesSymbol);
+    if (TYPEOF(nam) == STRSXP) names = jri_putStringArray(env, nam);
+    else names = (*env)->NewObjectArray(env, n, clsStringElt ? clsStringElt : (clsStringElt = globalClass(env, "java/lang/String")), 0);
+    if (rn != R_NilValue) rowNames = jri_putStringArray(env, rn);
+    res = (*env)->NewObject(env, clsDataFrame, midDataFrame, (jint) nrow, names, types, data, extra, rowNames);
+    return (*env)->PopLocalFrame(env, res);
+}
+
+/* sets the class attribute to one or two classes */
+static void setClass(SEXP e, const char *c1, const char *c2) {
+    SEXP cl = PROTECT(allocVector(STRSXP, c2 ? 2 : 1));
+    SET_STRING_ELT(cl, 0, mkChar(c1));
+    if (c2) SET_STRING_ELT(cl, 1, mkChar(c2));
+    setAttrib(e, R_ClassSymbol, cl);
+    UNPROTECT(1);
+}
+
+/* creates a data.frame from the parts of an RDataFrame in one pass. Returns 0 if the parts are inconsistent. */
+SEXP jri_getDataFrame(JNIEnv *env, jint nrow, jarray names, jarray types, jarray data, jarray extra, jarray rowNames)
+{
+    SEXP df, rn;
+    int n, j, ok = 1;
+    jint *tp;
+
+    if (!names || !types || !data || !extra) return 0;
+    n = (int)(*env)->GetArrayLength(env, types);
+    if ((*env)->GetArrayLength(env, names) != n || (*env)->GetArrayLength(env, data) != n ||
+	(*env)->GetArrayLength(env, extra) != n || !(tp = (*env)->GetIntArrayElements(env, types, 0)))
+	return 0;
+    PROTECT(df = allocVector(VECSXP, n));
+    for (j = 0; ok && j < n; j++) {
+	jobject d = (*env)->GetObjectArrayElement(env, (jobjectArray) data, j);
+	jobject x = (*env)->GetObjectArrayElement(env, (jobjectArray) extra, j);
+	SEXP c = 0;
+	int ct = NILSXP;
+	switch (tp[j]) {
+	case DF_DOUBLE: case DF_DATE: case DF_POSIXCT: c = jri_getDoubleArray(env, (jarray) d); ct = REALSXP; break;
+	case DF_INTEGER: case DF_FACTOR: c = jri_getIntArray(env, (jarray) d); ct = INTSXP; break;
+	case DF_LOGICAL: c = jri_getBoolArrayI(env, (jarray) d); ct = LGLSXP; break;
+	case DF_STRING: c = jri_getObject(env, d); ct = STRSXP; break;
+	}
+	/* the array getters return NULL for empty arrays, but columns of zero-row data frames must keep their type */
+	if (c == R_NilValue && d && ct != STRSXP && ct != NILSXP && (*env)->GetArrayLength(env, (jarray) d) == 0)
+	    c = allocVector(ct, 0);
+	if (!c || !d || TYPEOF(c) != ct || LENGTH(c) != nrow) {
+	    jri_error("jri_getDataFrame: column %d is invalid", j + 1);
+	    ok = 0;
+	} else {
+	    SET_VECTOR_ELT(df, j, c);
+	    switch (tp[j]) {
+	    case DF_FACTOR: {
+		int i, *cp = INTEGER(c), nlev = x ? (int) (*env)->GetArrayLength(env, (jarray) x) : 0;
+		SEXP lev;
+		for (i = 0; i < nrow; i++)
+		    if (cp[i] != NA_INTEGER) {
+			if (cp[i] < 0 || cp[i] >= nlev) break;
+			cp[i]++; /* R codes are 1-based */
+		    }
+		if (i < nrow) {
+		    jri_error("jri_getDataFrame: factor code in column %d is out of range", j + 1);
+		    ok = 0;
+		    break;
+		}
+		lev = PROTECT(x ? jri_getStringArray(env, (jarray) x) : allocVector(STRSXP, 0));
+		setAttrib(c, R_LevelsSymbol, lev);
+		UNPROTECT(1);
+		setClass(c, "factor", 0);
+		break;
+	    }
+	    case DF_DATE:
+		setClass(c, "Date", 0);
+		break;
+	    case DF_POSIXCT:
+		setClass(c, "POSIXct", "POSIXt");
+		if (x) {
+		    SEXP tz = PROTECT(jri_getString(env, (jstring) x));
+		    setAttrib(c, install("tzone"), tz);
+		    UNPROTECT(1);
+		}
+		break;
+	    }
+	}
+	if (d) (*env)->DeleteLocalRef(env, d);
+	if (x) (*env)->DeleteLocalRef(env, x);
+    }
+    (*env)->ReleaseIntArrayElements(env, types, tp, JNI_ABORT);
+    if (!ok) {
+	UNPROTECT(1);
+	return 0;
+    }
+    rn = PROTECT(jri_getStringArray(env, names));
+    setAttrib(df, R_NamesSymbol, rn);
+    UNPROTECT(1);
+    if (rowNames)
+	rn = PROTECT(jri_getStringArray(env, rowNames));
+    else {
+	rn = PROTECT(allocVector(INTSXP, 2)); /* compact form c(NA, -nrow) */
+	INTEGER(rn)[0] = NA_INTEGER;
+	INTEGER(rn)[1] = -nrow;
+    }
+    setAttrib(df, R_RowNamesSymbol, rn);
+    setClass(df, "data.frame", 0);
+    UNPROTECT(2);
+    return df;
+}
+
 #if R_VERSION >= R_Version(2,7,0)
 /* returns string from a CHARSXP making sure that the result is in UTF-8 */
 const char *jri_char_utf8(SEXP s) {
@@ -10,7 +10,7 @@
 /* the viewpoint is from R, i.e. "get" means "Java->R" whereas "put" means "R->Java" */
 
 #define JRI_VERSION 0x0505 /* JRI v0.5-5 */
-#define JRI_API     0x010a /* API-version 1.10 */
+#define JRI_API     0x010b /* API-version 1.11 */
 
 #ifdef __cplusplus
 extern "C" {
@@ -25,6 +25,29 @@ extern "C" {
 #define L2SEXP(s) ((SEXP)((jlong)((unsigned long)(s))))
 #endif
 
+/* content types of REXP (must match the XT_xxx constants in REXP.java) */
+#define XT_NONE           -1
+#define XT_NULL            0
+#define XT_INT             1
+#define XT_DOUBLE          2
+#define XT_STR             3
+#define XT_LANG            4
+#define XT_SYM             5
+#define XT_BOOL            6
+#define XT_VECTOR         16
+#define XT_LIST           17
+#define XT_CLOS           18
+#define XT_ARRAY_INT      32
+#define XT_ARRAY_DOUBLE   33
+#define XT_ARRAY_STR      34
+#define XT_ARRAY_BOOL_UA  35
+#define XT_ARRAY_BOOL     36
+#define XT_ARRAY_BOOL_INT 37
+#define XT_UNKNOWN        48
+#define XT_COMPLEX       100
+#define XT_ARRAY_COMPLEX 101
+#define XT_FACTOR        127
+
 jstring jri_callToString(JNIEnv *env, jobject o);
 
 SEXP jri_getDoubleArray(JNIEnv *env, jarray o);
@@ -33,9 +56,12 @@ SEXP jri_getByteArray(JNIEnv *env, jarray o);
 SEXP jri_getBoolArrayI(JNIEnv *env, jarray o);
 SEXP jri_getBoolArray(JNIEnv *env, jarray o);
 SEXP jri_getObjectArray(JNIEnv *env, jarray o);
+SEXP jri_getComplexArray(JNIEnv *env, jarray o); /* interleaved real/imaginary parts */
 SEXP jri_getString(JNIEnv *env, jstring s);
 SEXP jri_getStringArray(JNIEnv *env, jarray o);
+SEXP jri_getStringBlob(JNIEnv *env, jarray blob, jarray offsets, jarray index); /* RStringVector content */
 SEXP jri_getSEXPLArray(JNIEnv *env, jarray o);
+SEXP jri_getObject(JNIEnv *env, jobject o); /* converts supported Java objects, 0 if not supported */
 
 SEXP jri_installString(JNIEnv *env, jstring s); /* as Rf_install, just for Java strings */
 
@@ -45,11 +71,17 @@ jarray  jri_putBoolArrayI(JNIEnv *env, SEXP e);
 jarray  jri_putByteArray(JNIEnv *env, SEXP e);
 jstring jri_putString(JNIEnv *env, SEXP e, int ix); /* ix=index, 0=1st */
 jarray  jri_putStringArray(JNIEnv *env, SEXP e);
+jobject jri_putStringBlob(JNIEnv *env, SEXP e); /* RStringVector */
 jarray jri_putSEXPLArray(JNIEnv *env, SEXP e); /* SEXPs are strored as "long"s */
 
 jstring jri_putSymbolName(JNIEnv *env, SEXP e);
 
 jobjectArray jri_putComplexNumberArray(JNIEnv *env, SEXP exp);
+jarray jri_putComplexArray(JNIEnv *env, SEXP e); /* interleaved real/imaginary parts */
+jobjectArray jri_describe(JNIEnv *env, SEXP e, jint *info); /* see rniDescribe */
+jobject jri_convertTree(JNIEnv *env, jobject eng, SEXP e, int maxDepth, int maxNodes); /* see rniConvertTree */
+jobject jri_putDataFrame(JNIEnv *env, SEXP e); /* RDataFrame, 0 if not a data frame */
+SEXP jri_getDataFrame(JNIEnv *env, jint nrow, jarray names, jarray types, jarray data, jarray extra, jarray rowNames); /* see rniPutDataFrame */
 
 void jri_checkExceptions(JNIEnv *env, int describe);
 
@@ -58,13 +90,20 @@ void jri_error(char *fmt, ...);
 /* define mkCharUTF8 in a compatible fashion */
 #if R_VERSION < R_Version(2,7,0)
 #define mkCharUTF8(X) mkChar(X)
+#define mkCharLenUTF8(X, L) mkCharLen(X, L)
 #define CHAR_UTF8(X) CHAR(X)
 #else
 #define mkCharUTF8(X) mkCharCE(X, CE_UTF8)
+#define mkCharLenUTF8(X, L) mkCharLenCE(X, L, CE_UTF8)
 #define CHAR_UTF8(X) jri_char_utf8(X)
 const char *jri_char_utf8(SEXP);
 #endif
 
+/* long vectors were introduced in R 3.0.0 */
+#if R_VERSION < R_Version(3,0,0)
+#define XLENGTH(X) LENGTH(X)
+#endif
+
 #ifdef __cplusplus
 }
 #endif
@@ -95,4 +134,26 @@ const char *jri_char_utf8(SEXP);
        + rniPrintValue
     1.10 JRI 0.5-1
        * rniAssign returns jboolean instead of void
+    1.11 JRI 0.5-5
+       + rniUpdateEventMask, rniEventMaskChanged, rniWaitEvent, rniWakeup,
+         rniRunEventHandlers
+       + rniRegisterSession (RSession binds to the unsynchronized rni methods)
+       + rniEvalBatch
+       + rniSetCAR
+       + rniCall
+       * rniStop accepts flag 3 (withdraw a pending cooperative interrupt)
+       + rniGetDataBuffer
+       + rniGetLength, rniGetDoubleRegion, rniGetIntRegion,
+         rniGetBoolRegionI, rniGetRawRegion
+       + rniAllocVector, rniSetDoubleRegion, rniSetIntRegion,
+         rniSetBoolRegionI, rniSetRawRegion, rniSetBufferRegion
+       + rniGetDim, rniGetDoubleMatrix
+       + rniGetComplexArray, rniPutComplexArray
+       + rniGetStringBlob, rniPutStringBlob
+       + rniDescribe
+       + rniConvertTree
+       + rniGetDataFrame, rniPutDataFrame
+       + rniReleaseAll
+       + rniMarkNotMutable
+       + rniRunIdleHandlers (rniIdle is now implemented in Java)
 */